@@ -0,0 +1,612 @@
+/*
+ * AccessPath.java
+ *
+ * DBMS Implementation
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents the way in which a TableIterator reaches the
+ * rows of its table: a full scan of the table's database, a lookup or
+ * range scan of the primary key, or a scan of the range of entries in
+ * a secondary index that can satisfy the WHERE clause.
+ *
+ * The range is derived from the comparisons in the WHERE clause that
+ * are ANDed together at the top level and compare the primary key or an
+ * indexed column with a constant -- including LIKE comparisons whose
+ * patterns begin with literal characters, which limit the scan to the
+ * values that begin with those characters.  The iterator still
+ * evaluates the full WHERE clause on every row that the access path
+ * produces, so the range only needs to include every row that could
+ * satisfy the WHERE clause.
+ *
+ * If the table has been analyzed (see AnalyzeStatement), the access
+ * path with the lowest estimated cost is chosen, using the statistics
+ * of the columns to estimate how many rows each range contains.  A
+ * range scan through a secondary index reads each row with a separate
+ * lookup in the table, so it is only chosen if it reads a small enough
+ * fraction of the rows; otherwise a full scan is cheaper.  Without
+ * statistics, the access path that is likely to produce the fewest
+ * rows is chosen (see rank()).
+ */
+public class AccessPath {
+    /**
+     * The estimated cost of reading a row through a secondary index,
+     * relative to the cost of reading a row in a full scan.
+     */
+    public static final double INDEX_ROW_COST = 4;
+
+    private Table table;
+    private Index index;        // the index being scanned, or null
+    private Column column;      // the column whose values bound the scan
+                                // (the primary key, if index is null)
+    private byte[] low;         // the lower bound (null if none)
+    private boolean lowInclusive;
+    private byte[] high;        // the upper bound (null if none)
+    private boolean highInclusive;
+    private Object lowVal;      // the values of the bounds, which are
+    private Object highVal;     // used to estimate the number of rows
+
+    private Cursor cursor;
+    private Transaction txn;    // the transaction of the cursor, or null
+    private LockMode lockMode;  // used for the cursor's reads
+    private DatabaseEntry indexKey;
+    private boolean isPointLookup;
+
+    /*
+     * Constructs an AccessPath object for a full scan of the table.
+     */
+    private AccessPath(Table table) {
+        this.table = table;
+    }
+
+    /**
+     * Chooses the access path for the specified iterator.  Only the
+     * comparisons that involve columns whose values come from this
+     * iterator are considered.
+     *
+     * @param  iter  the iterator that will use the access path
+     * @param  table  the table being iterated over
+     * @param  where  the WHERE clause (or null if there isn't one)
+     * @return  the access path
+     */
+    public static AccessPath choose(TableIterator iter, Table table,
+                                    ConditionalExpression where)
+    {
+        return choose(iter, table, where, null);
+    }
+
+    /**
+     * Chooses the access path for an iterator that will be used to
+     * update rows.  An index is not used if the update could move rows
+     * ahead of the scan -- i.e., if the new value of the indexed column
+     * is within the range being scanned -- since the scan would then
+     * visit those rows again.
+     *
+     * @param  iter  the iterator that will use the access path
+     * @param  table  the table being iterated over
+     * @param  where  the WHERE clause (or null if there isn't one)
+     * @param  updateVals  the new value of each column, indexed by
+     *         column index, with null for columns that aren't being set 
+     *         to a non-null value; or null if rows aren't being updated
+     * @return  the access path
+     */
+    public static AccessPath choose(TableIterator iter, Table table,
+                                    ConditionalExpression where,
+                                    Object[] updateVals)
+    {
+        AccessPath best = new AccessPath(table);
+
+        /*
+         * Find the bounds that the top-level conjuncts impose on each
+         * column, and keep the most selective one that can be used.
+         */
+        HashMap<Integer, AccessPath> bounds = new HashMap<Integer, AccessPath>();
+        ArrayList<Comparison> conjuncts = new ArrayList<Comparison>();
+        getConjuncts(where, conjuncts);
+        for (Comparison comp : conjuncts) {
+            Column col = boundColumn(comp, iter);
+            if (col == null) {
+                continue;
+            }
+
+            AccessPath path = bounds.get(col.getIndex());
+            if (path == null) {
+                path = forColumn(table, col);
+                if (path == null) {
+                    continue;
+                }
+                bounds.put(col.getIndex(), path);
+            }
+            path.restrict(comp, col);
+        }
+
+        TableStats stats = Catalog.getStats(table.getName());
+        if (stats != null && stats.numColumns() != table.numColumns()) {
+            stats = null;
+        }
+        for (AccessPath path : bounds.values()) {
+            if (updateVals != null && path.index != null &&
+                path.inRange(updateVals[path.column.getIndex()])) {
+                continue;
+            }
+            if (stats != null ? path.cost(stats) < best.cost(stats) :
+                                path.rank() > best.rank()) {
+                best = path;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Returns an access path that can be bounded by values of the
+     * specified column, or null if there isn't a way to use the column.
+     */
+    private static AccessPath forColumn(Table table, Column col) {
+        Index index = null;
+        if (!col.isPrimaryKey()) {
+            index = table.indexOn(col.getIndex());
+            if (index == null) {
+                return null;
+            }
+        }
+        AccessPath path = new AccessPath(table);
+        path.index = index;
+        path.column = col;
+        return path;
+    }
+
+    /*
+     * Adds the comparisons in the expression that are ANDed together at
+     * the top level to the specified list.
+     */
+    private static void getConjuncts(ConditionalExpression exp,
+                                     ArrayList<Comparison> conjuncts)
+    {
+        if (exp instanceof AndExpression) {
+            getConjuncts(exp.getLeft(), conjuncts);
+            getConjuncts(exp.getRight(), conjuncts);
+        } else if (exp instanceof Comparison) {
+            conjuncts.add((Comparison)exp);
+        }
+    }
+
+    /*
+     * If the comparison compares a column from the specified iterator
+     * with a constant, returns the column; otherwise returns null.
+     */
+    private static Column boundColumn(Comparison comp, TableIterator iter) {
+        CompareTerm left = comp.getLeftTerm();
+        CompareTerm right = comp.getRightTerm();
+        if (right == null) {
+            return null;
+        }
+        if (left instanceof Column && !(right instanceof Column) &&
+            ((Column)left).getTableIterator() == iter) {
+            return (Column)left;
+        }
+        if (right instanceof Column && !(left instanceof Column) &&
+            ((Column)right).getTableIterator() == iter) {
+            return (Column)right;
+        }
+        return null;
+    }
+
+    /*
+     * Narrows the range of this access path using the specified
+     * comparison between the specified column and a constant.
+     */
+    private void restrict(Comparison comp, Column col) {
+        int type = comp.getType();
+        if (type == Comparison.LIKE) {
+            if (comp.getLeftTerm() == col &&
+                col.getValType() == CompareTerm.STRING) {
+                this.restrictToPrefix(col, comp.getMatcher().getPrefix());
+            }
+            return;
+        }
+        
+        CompareTerm constant = comp.getRightTerm();
+        if (comp.getLeftTerm() != col) {
+            /* The constant is on the left, so flip the comparison. */
+            constant = comp.getLeftTerm();
+            if (type == Comparison.LT) {
+                type = Comparison.GT;
+            } else if (type == Comparison.GT) {
+                type = Comparison.LT;
+            } else if (type == Comparison.LTEQ) {
+                type = Comparison.GTEQ;
+            } else if (type == Comparison.GTEQ) {
+                type = Comparison.LTEQ;
+            }
+        }
+
+        /*
+         * The RAW key format doesn't preserve the order of numeric
+         * values, so only equality can be used on their numeric columns.
+         */
+        int format = this.table.getKeyFormat();
+        if (type != Comparison.EQ && col.getValType() != CompareTerm.STRING &&
+            format == KeyEncoding.RAW) {
+            return;
+        }
+
+        byte[] bytes = KeyEncoding.encode(col.getType(), constant.getValue(),
+                                          format);
+        if (bytes == null) {
+            return;
+        }
+        switch (type) {
+            case Comparison.EQ:
+                this.raiseLow(bytes, true, constant.getValue());
+                this.lowerHigh(bytes, true, constant.getValue());
+                break;
+            case Comparison.GT:
+                this.raiseLow(bytes, false, constant.getValue());
+                break;
+            case Comparison.GTEQ:
+                this.raiseLow(bytes, true, constant.getValue());
+                break;
+            case Comparison.LT:
+                this.lowerHigh(bytes, false, constant.getValue());
+                break;
+            case Comparison.LTEQ:
+                this.lowerHigh(bytes, true, constant.getValue());
+                break;
+        }
+    }
+
+    /*
+     * Narrows the range of this access path to the values of a string
+     * column that begin with the specified prefix: those from the
+     * prefix itself up to, but not including, the smallest string that
+     * is greater than all of them.
+     */
+    private void restrictToPrefix(Column col, String prefix) {
+        if (prefix.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (prefix.charAt(i) > 0xFF) {
+                // strings are stored one byte per char
+                return;
+            }
+        }
+        byte[] bytes = KeyEncoding.encode(col.getType(), prefix,
+                                          this.table.getKeyFormat());
+        this.raiseLow(bytes, true, prefix);
+
+        /*
+         * The upper bound is the prefix with its last byte incremented,
+         * after removing any trailing bytes that can't be incremented.
+         */
+        int last = bytes.length - 1;
+        while (last >= 0 && bytes[last] == (byte)0xFF) {
+            last--;
+        }
+        if (last >= 0) {
+            byte[] next = Arrays.copyOf(bytes, last + 1);
+            next[last]++;
+            this.lowerHigh(next, false,
+                           new String(next, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private void raiseLow(byte[] bytes, boolean inclusive, Object val) {
+        int cmp = (this.low == null ? 1 : Arrays.compareUnsigned(bytes, this.low));
+        if (cmp > 0 || (cmp == 0 && !inclusive)) {
+            this.low = bytes;
+            this.lowInclusive = inclusive;
+            this.lowVal = val;
+        }
+    }
+
+    private void lowerHigh(byte[] bytes, boolean inclusive, Object val) {
+        int cmp = (this.high == null ? -1 : Arrays.compareUnsigned(bytes, this.high));
+        if (cmp < 0 || (cmp == 0 && !inclusive)) {
+            this.high = bytes;
+            this.highInclusive = inclusive;
+            this.highVal = val;
+        }
+    }
+
+    /*
+     * Returns true if the specified value of this access path's column
+     * is within the range being scanned.
+     */
+    private boolean inRange(Object val) {
+        if (val == null) {
+            return false;
+        }
+        byte[] bytes = KeyEncoding.encode(this.column.getType(), val,
+                                          this.table.getKeyFormat());
+        if (bytes == null) {
+            return false;
+        }
+        if (this.low != null) {
+            int cmp = Arrays.compareUnsigned(bytes, this.low);
+            if (cmp < 0 || (cmp == 0 && !this.lowInclusive)) {
+                return false;
+            }
+        }
+        if (this.high != null) {
+            int cmp = Arrays.compareUnsigned(bytes, this.high);
+            if (cmp > 0 || (cmp == 0 && !this.highInclusive)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Ranks the access path by how few rows it is likely to produce:
+     * a full scan has the lowest rank and a lookup of a single value
+     * has the highest.
+     */
+    private int rank() {
+        if (this.column == null) {
+            return 0;
+        } else if (this.isEquality()) {
+            /* A primary-key lookup produces at most one row. */
+            return (this.index == null ? 4 : 3);
+        } else if (this.low != null && this.high != null) {
+            return 2;
+        } else if (this.low != null || this.high != null) {
+            return 1;
+        } else {
+            return 0;
+        }
+    }
+
+    /*
+     * Estimates the cost of the access path from the table's statistics,
+     * in units of the cost of reading a row in a full scan.  A range of
+     * the primary key is read in order, like a full scan, but each row
+     * in a range of an index is read with a separate lookup.
+     */
+    private double cost(TableStats stats) {
+        if (this.column == null) {
+            return stats.getNumRows();
+        }
+
+        ColumnStats colStats = stats.getColumn(this.column.getIndex());
+        double fraction;
+        if ((this.lowVal != null && !colStats.canCompare(this.lowVal)) ||
+            (this.highVal != null && !colStats.canCompare(this.highVal))) {
+            fraction = 1.0 / 3;
+        } else if (this.isEquality()) {
+            fraction = colStats.equalFraction(this.lowVal);
+        } else {
+            fraction = colStats.rangeFraction(this.lowVal, this.lowInclusive,
+                                              this.highVal, this.highInclusive);
+        }
+
+        /* Positioning the cursor costs about as much as reading a row. */
+        double rows = fraction * stats.getNumRows();
+        return 1 + (this.index == null ? rows : INDEX_ROW_COST * rows);
+    }
+
+    /*
+     * Returns true if this access path is limited to a single value
+     * of its column.
+     */
+    private boolean isEquality() {
+        return (this.low != null && this.high != null && this.lowInclusive &&
+                this.highInclusive && Arrays.equals(this.low, this.high));
+    }
+
+    /**
+     * Opens the cursor used by this access path, outside of any
+     * explicit transaction.
+     *
+     * @throws DatabaseException if Berkeley DB encounters a problem
+     *         opening the cursor
+     */
+    public void open() throws DatabaseException {
+        this.open(null, false);
+    }
+
+    /**
+     * Opens the cursor used by this access path in the specified
+     * transaction.  If forUpdate is true, the rows are write-locked as
+     * they are read, so that the transaction doesn't need to upgrade
+     * its locks (and risk deadlock) when it modifies them.
+     *
+     * @param  txn  the transaction (or null for none)
+     * @param  forUpdate  will the rows be updated or deleted?
+     * @throws DatabaseException if Berkeley DB encounters a problem
+     *         opening the cursor
+     */
+    public void open(Transaction txn, boolean forUpdate)
+        throws DatabaseException
+    {
+        this.txn = txn;
+        this.lockMode = (forUpdate ? LockMode.RMW : null);
+        if (this.index != null) {
+            this.cursor = this.index.getDB().openCursor(txn, null);
+            this.indexKey = new DatabaseEntry();
+        } else {
+            this.cursor = this.table.getDB().openCursor(txn, null);
+        }
+    }
+
+    /**
+     * Closes the cursor used by this access path.
+     *
+     * @throws DatabaseException if Berkeley DB encounters a problem
+     *         closing the cursor
+     */
+    public void close() throws DatabaseException {
+        if (this.cursor != null) {
+            this.cursor.close();
+        }
+        this.cursor = null;
+    }
+
+    /**
+     * Positions the cursor on the first row reached by this access path.
+     *
+     * @param  key  used to return the row's key
+     * @param  value  used to return the row's value
+     * @return  true if there is such a row, and false otherwise
+     * @throws DeadlockException if deadlock occurs while accessing the
+     *         underlying BDB database(s)
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         while accessing the underlying database(s)
+     */
+    public boolean first(DatabaseEntry key, DatabaseEntry value)
+        throws DeadlockException, DatabaseException
+    {
+        if (this.column == null) {
+            return (this.cursor.getFirst(key, value, this.lockMode) ==
+                    OperationStatus.SUCCESS);
+        }
+
+        if (this.index == null) {
+            /*
+             * An equality on the primary key is a single B-tree lookup.
+             * We use the cursor rather than Database.get() so that the
+             * cursor is positioned on the row (e.g., so that it can be
+             * updated or deleted).
+             */
+            if (this.isEquality()) {
+                this.isPointLookup = true;
+                key.setData(this.low.clone());
+                return (this.cursor.getSearchKey(key, value, this.lockMode) ==
+                        OperationStatus.SUCCESS);
+            }
+
+            OperationStatus ret;
+            if (this.low == null) {
+                ret = this.cursor.getFirst(key, value, this.lockMode);
+            } else {
+                key.setData(this.low.clone());
+                ret = this.cursor.getSearchKeyRange(key, value, this.lockMode);
+                if (ret == OperationStatus.SUCCESS && !this.lowInclusive &&
+                    compare(key, this.low) == 0) {
+                    ret = this.cursor.getNext(key, value, this.lockMode);
+                }
+            }
+            return (ret == OperationStatus.SUCCESS && this.belowHigh(key));
+        }
+
+        SecondaryCursor secCursor = (SecondaryCursor)this.cursor;
+        OperationStatus ret;
+        if (this.low == null) {
+            ret = secCursor.getFirst(this.indexKey, key, value, this.lockMode);
+        } else {
+            this.indexKey.setData(this.low.clone());
+            ret = secCursor.getSearchKeyRange(this.indexKey, key, value,
+                                              this.lockMode);
+            while (ret == OperationStatus.SUCCESS && !this.lowInclusive &&
+                   compare(this.indexKey, this.low) == 0) {
+                ret = secCursor.getNext(this.indexKey, key, value,
+                                        this.lockMode);
+            }
+        }
+        return (ret == OperationStatus.SUCCESS && this.belowHigh(this.indexKey));
+    }
+
+    /**
+     * Advances the cursor to the next row reached by this access path.
+     *
+     * @param  key  used to return the row's key
+     * @param  value  used to return the row's value
+     * @return  true if there is such a row, and false otherwise
+     * @throws DeadlockException if deadlock occurs while accessing the
+     *         underlying BDB database(s)
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         while accessing the underlying database(s)
+     */
+    public boolean next(DatabaseEntry key, DatabaseEntry value)
+        throws DeadlockException, DatabaseException
+    {
+        if (this.column == null) {
+            return (this.cursor.getNext(key, value, this.lockMode) ==
+                    OperationStatus.SUCCESS);
+        }
+
+        if (this.index == null) {
+            if (this.isPointLookup) {
+                return false;
+            }
+            OperationStatus ret = this.cursor.getNext(key, value, this.lockMode);
+            return (ret == OperationStatus.SUCCESS && this.belowHigh(key));
+        }
+
+        SecondaryCursor secCursor = (SecondaryCursor)this.cursor;
+        OperationStatus ret = secCursor.getNext(this.indexKey, key, value,
+                                                this.lockMode);
+        return (ret == OperationStatus.SUCCESS && this.belowHigh(this.indexKey));
+    }
+
+    /**
+     * Replaces the value of the row on which the cursor is positioned.
+     * The row's primary key must not change.
+     *
+     * @param  key  the row's primary key
+     * @param  value  the row's new value
+     * @throws DeadlockException if deadlock occurs while accessing the
+     *         underlying BDB database(s)
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         while accessing the underlying database(s)
+     */
+    public void putCurrent(DatabaseEntry key, DatabaseEntry value)
+        throws DeadlockException, DatabaseException
+    {
+        if (this.index == null) {
+            this.cursor.putCurrent(value);
+        } else {
+            /*
+             * A SecondaryCursor can't write, so we write the row through
+             * the table's database, which also updates the indexes.
+             */
+            this.table.getDB().put(this.txn, key, value);
+        }
+    }
+
+    /**
+     * Deletes the row on which the cursor is positioned.  If the
+     * cursor is on an index, the row is deleted from the table, 
+     * along with its entries in all of the table's indexes.
+     *
+     * @throws DeadlockException if deadlock occurs while accessing the
+     *         underlying BDB database(s)
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         while accessing the underlying database(s)
+     */
+    public void deleteCurrent() throws DeadlockException, DatabaseException {
+        this.cursor.delete();
+    }
+
+    /*
+     * Returns true if the specified key is within the upper bound.
+     */
+    private boolean belowHigh(DatabaseEntry boundKey) {
+        if (this.high == null) {
+            return true;
+        }
+        int cmp = compare(boundKey, this.high);
+        return (cmp < 0 || (cmp == 0 && this.highInclusive));
+    }
+
+    private static int compare(DatabaseEntry entry, byte[] bytes) {
+        return Arrays.compareUnsigned(entry.getData(), entry.getOffset(),
+                                      entry.getOffset() + entry.getSize(),
+                                      bytes, 0, bytes.length);
+    }
+
+    public String toString() {
+        if (this.column == null) {
+            return "full scan of " + this.table;
+        } else if (this.index == null) {
+            return (this.isEquality() ? "lookup" : "range scan") + 
+                   " of primary key " + this.column.getName();
+        }
+        return "range scan of index " + this.index.getName() + " on " +
+               this.column.getName();
+    }
+}
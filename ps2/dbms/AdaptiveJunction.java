@@ -0,0 +1,151 @@
+/*
+ * AdaptiveJunction.java
+ *
+ * DBMS Implementation
+ */
+
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A class that represents a compiled AND or OR of any number of terms
+ * (see ConditionalExpression.compile()), which evaluates the terms in
+ * the order that makes it cheapest to short-circuit.
+ *
+ * An AND can stop at the first term that is false, and an OR at the
+ * first term that is true.  If q is the fraction of the rows for which
+ * a term does not stop the evaluation (the fraction for which it is
+ * true in an AND, or false in an OR), the cheapest order evaluates the
+ * terms in increasing order of cost / (1 - q).  The initial order uses
+ * the terms' estimates of their cost and selectivity.  As rows are
+ * evaluated, the junction counts how often each term lets the
+ * evaluation continue, and every REORDER_INTERVAL rows it orders the
+ * terms again using the observed rates (combined with the estimates,
+ * which count as PRIOR_WEIGHT rows).  The counts are then halved, so
+ * that the order can follow the data if the rates change during a
+ * long scan.
+ *
+ * Reordering is safe because the terms have no side effects and are
+ * either true or false for every row (there is no UNKNOWN).
+ */
+public class AdaptiveJunction implements BooleanSupplier {
+    /** The number of rows between reorderings of the terms. */
+    public static final int REORDER_INTERVAL = 1024;
+
+    /** The number of rows that a term's estimated pass rate counts as. */
+    public static final double PRIOR_WEIGHT = 16;
+
+    private boolean isAnd;
+    private BooleanSupplier[] terms;
+    private double[] costs;
+    private double[] estimates;   // the estimated q of each term
+    private int[] evals;          // the number of evaluations of each term
+    private int[] continues;      // the number that didn't stop evaluation
+    private int countdown;
+
+    private AdaptiveJunction(boolean isAnd, List<ConditionalExpression> exps) {
+        int n = exps.size();
+        this.isAnd = isAnd;
+        this.terms = new BooleanSupplier[n];
+        this.costs = new double[n];
+        this.estimates = new double[n];
+        this.evals = new int[n];
+        this.continues = new int[n];
+        for (int i = 0; i < n; i++) {
+            ConditionalExpression exp = exps.get(i);
+            this.terms[i] = exp.compile();
+            this.costs[i] = exp.estimateCost();
+            double selectivity = exp.estimateSelectivity();
+            this.estimates[i] = (isAnd ? selectivity : 1 - selectivity);
+        }
+        this.reorder();
+    }
+
+    /**
+     * Compiles an AND or OR expression, together with the expressions
+     * of the same kind that are nested directly inside it -- e.g.,
+     * <code>a AND (b AND c)</code> becomes a junction of three terms.
+     *
+     * @param  exp  an AndExpression or an OrExpression
+     * @return  the compiled expression
+     */
+    public static BooleanSupplier compile(ConditionalExpression exp) {
+        boolean isAnd = (exp instanceof AndExpression);
+        ArrayList<ConditionalExpression> exps =
+          new ArrayList<ConditionalExpression>();
+        collectTerms(exp, exp.getClass(), exps);
+        return new AdaptiveJunction(isAnd, exps);
+    }
+
+    private static void collectTerms(ConditionalExpression exp, Class<?> kind,
+                                     List<ConditionalExpression> exps) {
+        if (exp.getClass() == kind) {
+            collectTerms(exp.getLeft(), kind, exps);
+            collectTerms(exp.getRight(), kind, exps);
+        } else {
+            exps.add(exp);
+        }
+    }
+
+    public boolean getAsBoolean() {
+        if (--this.countdown == 0) {
+            this.reorder();
+        }
+
+        /* An AND stops at a false term, and an OR at a true one. */
+        BooleanSupplier[] terms = this.terms;
+        for (int i = 0; i < terms.length; i++) {
+            this.evals[i]++;
+            if (terms[i].getAsBoolean() != this.isAnd) {
+                return !this.isAnd;
+            }
+            this.continues[i]++;
+        }
+        return this.isAnd;
+    }
+
+    /*
+     * Sorts the terms by their ranks, and halves the counts.
+     */
+    private void reorder() {
+        int n = this.terms.length;
+        double[] ranks = new double[n];
+        for (int i = 0; i < n; i++) {
+            double q = (this.continues[i] +
+                        PRIOR_WEIGHT * this.estimates[i]) /
+                       (this.evals[i] + PRIOR_WEIGHT);
+            ranks[i] = this.costs[i] / Math.max(1 - q, 0.001);
+            this.evals[i] /= 2;
+            this.continues[i] /= 2;
+        }
+
+        /* An insertion sort, since there are only a few terms. */
+        for (int i = 1; i < n; i++) {
+            for (int j = i; j > 0 && ranks[j] < ranks[j - 1]; j--) {
+                this.swap(ranks, j, j - 1);
+            }
+        }
+        this.countdown = REORDER_INTERVAL;
+    }
+
+    private void swap(double[] ranks, int i, int j) {
+        double rank = ranks[i];
+        ranks[i] = ranks[j];
+        ranks[j] = rank;
+        BooleanSupplier term = this.terms[i];
+        this.terms[i] = this.terms[j];
+        this.terms[j] = term;
+        double cost = this.costs[i];
+        this.costs[i] = this.costs[j];
+        this.costs[j] = cost;
+        double estimate = this.estimates[i];
+        this.estimates[i] = this.estimates[j];
+        this.estimates[j] = estimate;
+        int count = this.evals[i];
+        this.evals[i] = this.evals[j];
+        this.evals[j] = count;
+        count = this.continues[i];
+        this.continues[i] = this.continues[j];
+        this.continues[j] = count;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * AnalyzeStatement.java
+ *
+ * DBMS Implementation
+ */
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents an ANALYZE command, which gathers statistics
+ * about the rows of a table (see TableStats and ColumnStats) and stores
+ * them in the catalog, where they are used to estimate how many rows
+ * will satisfy a WHERE clause (see Comparison.estimateSelectivity()
+ * and AccessPath):
+ *
+ * <pre>ANALYZE table [SAMPLE n];</pre>
+ *
+ * The command scans the whole table.  Berkeley DB has to read every row
+ * to reach the ones after it, so reading only some of them would save
+ * little, and the row count, NULL counts, and minimum and maximum
+ * values are exact.  The distinct values are counted by a HyperLogLog
+ * sketch, which takes the same small amount of memory for any number
+ * of rows.  The histograms are built from a uniform random sample of
+ * at most n rows (DEFAULT_SAMPLE_SIZE, by default), chosen by reservoir
+ * sampling, so that their memory and sorting time are bounded too.
+ */
+public class AnalyzeStatement extends SQLStatement {
+    /** The default number of rows used to build the histograms. */
+    public static final int DEFAULT_SAMPLE_SIZE = 30000;
+
+    /** The maximum number of buckets in a histogram. */
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    private int sampleSize;
+
+    /**
+     * Constructs an AnalyzeStatement object for the specified table.
+     *
+     * @param  t  the table to be analyzed
+     * @param  sampleSize  the maximum number of rows used to build the
+     *         histograms
+     */
+    public AnalyzeStatement(Table t, int sampleSize) {
+        super(t);
+        this.sampleSize = sampleSize;
+    }
+
+    public void execute() throws DatabaseException, DeadlockException {
+        Table table = this.getTable(0);
+        TableIterator iter = null;
+
+        try {
+            if (table.open() != OperationStatus.SUCCESS) {
+                throw new Exception();  // error msg was printed in open()
+            }
+            iter = new TableIterator(this, table, false);
+            TableStats stats = this.analyze(table, iter);
+            Catalog.putStats(table, stats);
+
+            System.out.println("Analyzed " + stats.getNumRows() +
+                               " rows of " + table + ".");
+            for (int i = 0; i < stats.numColumns(); i++) {
+                ColumnStats colStats = stats.getColumn(i);
+                String range = "";
+                if (colStats.getMin() != null) {
+                    range = ", from " + colStats.getMin() + " to " +
+                            colStats.getMax();
+                }
+                System.out.println("  " + table.getColumn(i).getName() +
+                                   ": " + colStats.getNumNulls() +
+                                   " nulls, about " +
+                                   colStats.getNumDistinct() +
+                                   " distinct values" + range + ".");
+            }
+        } catch (Exception e) {
+            this.reportError(e, "Could not analyze table " + table);
+        } finally {
+            if (iter != null) {
+                iter.close();
+            }
+        }
+    }
+
+    /*
+     * Scans the table and computes its statistics.
+     */
+    private TableStats analyze(Table table, TableIterator iter)
+        throws DatabaseException
+    {
+        int numCols = table.numColumns();
+        long[] numNulls = new long[numCols];
+        Object[] mins = new Object[numCols];
+        Object[] maxes = new Object[numCols];
+        HyperLogLog[] sketches = new HyperLogLog[numCols];
+        for (int i = 0; i < numCols; i++) {
+            sketches[i] = new HyperLogLog();
+        }
+
+        /*
+         * The sample holds the values of the first sampleSize rows;
+         * after that, row r replaces a random row of the sample with
+         * probability sampleSize / (r + 1).  It grows as rows are read,
+         * so a large sample size costs nothing for a small table.
+         */
+        ArrayList<Object[]> sample = new ArrayList<Object[]>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long numRows = 0;
+        while (iter.next()) {
+            Object[] sampled = null;
+            if (numRows < this.sampleSize) {
+                sampled = new Object[numCols];
+                sample.add(sampled);
+            } else {
+                long r = random.nextLong(numRows + 1);
+                if (r < this.sampleSize) {
+                    sampled = sample.get((int)r);
+                }
+            }
+            numRows++;
+
+            for (int i = 0; i < numCols; i++) {
+                Object val = iter.getColumnVal(i);
+                if (sampled != null) {
+                    sampled[i] = val;
+                }
+                if (val == null) {
+                    numNulls[i]++;
+                    continue;
+                }
+                if (mins[i] == null || ColumnStats.compare(val, mins[i]) < 0) {
+                    mins[i] = val;
+                }
+                if (maxes[i] == null || ColumnStats.compare(val, maxes[i]) > 0) {
+                    maxes[i] = val;
+                }
+                sketches[i].add(val);
+            }
+        }
+
+        ColumnStats[] columns = new ColumnStats[numCols];
+        for (int i = 0; i < numCols; i++) {
+            Object[] bounds = histogram(sample, i, mins[i], maxes[i]);
+            columns[i] = new ColumnStats(table.getColumn(i).getType(),
+                                         numNulls[i], numRows - numNulls[i],
+                                         mins[i], maxes[i], sketches[i],
+                                         bounds);
+        }
+        return new TableStats(numRows, System.currentTimeMillis(), columns);
+    }
+
+    /*
+     * Builds an equi-depth histogram from the non-null values of the
+     * specified column in the sample, returning null if there are none.
+     * The bounds are the values at evenly spaced positions in the
+     * sorted sample, except that the first and last are the column's
+     * actual minimum and maximum, which the sample may have missed.
+     */
+    private static Object[] histogram(ArrayList<Object[]> sample, int col,
+                                      Object min, Object max)
+    {
+        ArrayList<Object> vals = new ArrayList<Object>(sample.size());
+        for (Object[] row : sample) {
+            if (row[col] != null) {
+                vals.add(row[col]);
+            }
+        }
+        if (vals.isEmpty()) {
+            return null;
+        }
+        vals.sort(ColumnStats::compare);
+
+        int numBuckets = Math.min(HISTOGRAM_BUCKETS, vals.size());
+        Object[] bounds = new Object[numBuckets + 1];
+        for (int i = 0; i <= numBuckets; i++) {
+            int pos = (int)Math.round((double)i * (vals.size() - 1) /
+                                      numBuckets);
+            bounds[i] = vals.get(pos);
+        }
+        bounds[0] = min;
+        bounds[numBuckets] = max;
+        return bounds;
+    }
+}
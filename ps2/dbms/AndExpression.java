@@ -4,6 +4,8 @@
  * DBMS Implementation
  */
 
+import java.util.function.BooleanSupplier;
+
 /**
  * A class that represents a conditional expression involving an AND operator.
  * An AndExpression involves two conditional subexpressions, and it is true
@@ -32,4 +34,22 @@ public class AndExpression extends ConditionalExpression {
     public boolean isTrue() {
         return (this.getLeft().isTrue() && this.getRight().isTrue());
     }
+    
+    /*
+     * The subexpressions are evaluated in the order that is expected
+     * to be cheapest, rather than in the order in which they appear.
+     */
+    public BooleanSupplier compile() {
+        return AdaptiveJunction.compile(this);
+    }
+    
+    public double estimateCost() {
+        return this.getLeft().estimateCost() +
+          this.getLeft().estimateSelectivity() * this.getRight().estimateCost();
+    }
+    
+    public double estimateSelectivity() {
+        return this.getLeft().estimateSelectivity() *
+               this.getRight().estimateSelectivity();
+    }
 }
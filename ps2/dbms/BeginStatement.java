@@ -17,6 +17,15 @@ public class BeginStatement extends SQLStatement {
     }
     
     public void execute() throws DatabaseException, DeadlockException {
-        /* not implemented for this assignment */
+        try {
+            if (DBMS.getTxn() != null) {
+                throw new Exception("There is already a transaction " +
+                                    "in progress");
+            }
+            DBMS.setTxn(DBMS.getEnv().beginTransaction(null, null));
+            System.out.println("Began transaction.");
+        } catch (Exception e) {
+            this.reportError(e, "Could not begin transaction");
+        }
     }
 }
@@ -5,12 +5,26 @@
  */
 
 import java.io.*;
+import java.util.*;
 import com.sleepycat.je.*;
 
 /**
  * A class representing the catalog of a simple relational database.  It
- * stores all per-table metadata: the name of the table, and the metadata
- * for each of the table's columns.
+ * stores all per-table metadata: the name of the table, the metadata
+ * for each of the table's columns, and the format of the table's keys.
+ * It also stores the metadata for the secondary indexes, and the
+ * statistics gathered by ANALYZE (see TableStats), in two separate
+ * databases.
+ *
+ * The key format was added after the other metadata, so it is stored
+ * at the end of a table's entry, and an entry without one is for a
+ * table whose keys use KeyEncoding.RAW.
+ *
+ * The entire catalog is read when it is opened -- in one sequential
+ * scan of each database -- and kept in memory as immutable maps, so
+ * looking up the metadata of a table or index never accesses Berkeley
+ * DB.  The methods that add and remove entries write through to the
+ * databases and then replace the affected map with an updated copy.
  *
  * To allow access to the catalog methods from all other classes, we make
  * all methods static, so that the class name can be used to invoke them.
@@ -19,10 +33,36 @@ public class Catalog {
     /** The name of the catalog's underlying BDB database. */ 
     public static final String CATALOG_NAME = "catalog.db";
     
+    /** The name of the BDB database that stores the index metadata. */ 
+    public static final String INDEX_CATALOG_NAME = "indexes.db";
+    
+    /** The name of the BDB database that stores the table statistics. */ 
+    public static final String STATS_CATALOG_NAME = "stats.db";
+    
+    /* the tags that precede the values in the statistics */
+    private static final int NULL_VAL = 0;
+    private static final int INT_VAL = 1;
+    private static final int REAL_VAL = 2;
+    private static final int STRING_VAL = 3;
+    
     private static Database catalogDB;
+    private static Database indexCatalogDB;
+    private static Database statsCatalogDB;
+    
+    /* the decoded entries of the databases, keyed by name */
+    private static volatile Map<String, TableEntry> tables =
+      Collections.emptyMap();
+    private static volatile Map<String, Index> indexes =
+      Collections.emptyMap();
+    private static volatile Map<String, TableStats> stats =
+      Collections.emptyMap();
+    
+    /* incremented whenever a table or index is added or removed */
+    private static volatile long schemaVersion = 0;
     
     /**
-     * Opens the catalog so that it can be used to store and retrieve metadata.
+     * Opens the catalog so that it can be used to store and retrieve
+     * metadata, and reads all of its entries into memory.
      *
      * @throws DatabaseException if Berkeley DB encounters a problem opening
      *         the underlying database.
@@ -38,6 +78,51 @@ public class Catalog {
         // We use an auto-commit transaction to open the database, as
         // indicated by the line config.setTransactional(true) above.
         catalogDB = env.openDatabase(null, CATALOG_NAME, config);
+        indexCatalogDB = env.openDatabase(null, INDEX_CATALOG_NAME, config);
+        statsCatalogDB = env.openDatabase(null, STATS_CATALOG_NAME, config);
+        
+        /* Decode all of the entries, each exactly once. */
+        Map<String, TableEntry> tableMap = new HashMap<String, TableEntry>();
+        Map<String, Index> indexMap = new TreeMap<String, Index>();
+        Map<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry value = new DatabaseEntry();
+        
+        Cursor cursor = catalogDB.openCursor(null, null);
+        try {
+            while (cursor.getNext(key, value, null) == OperationStatus.SUCCESS) {
+                String name = new String(key.getData(), key.getOffset(),
+                                         key.getSize());
+                tableMap.put(name, readTable(value));
+            }
+        } finally {
+            cursor.close();
+        }
+        
+        cursor = indexCatalogDB.openCursor(null, null);
+        try {
+            while (cursor.getNext(key, value, null) == OperationStatus.SUCCESS) {
+                Index index = readIndex(key, value);
+                indexMap.put(index.getName(), index);
+            }
+        } finally {
+            cursor.close();
+        }
+        
+        cursor = statsCatalogDB.openCursor(null, null);
+        try {
+            while (cursor.getNext(key, value, null) == OperationStatus.SUCCESS) {
+                String name = new String(key.getData(), key.getOffset(),
+                                         key.getSize());
+                statsMap.put(name, readStats(value));
+            }
+        } finally {
+            cursor.close();
+        }
+        
+        tables = Collections.unmodifiableMap(tableMap);
+        indexes = Collections.unmodifiableMap(indexMap);
+        stats = Collections.unmodifiableMap(statsMap);
     }
     
     /**
@@ -47,9 +132,18 @@ public class Catalog {
      *         the underlying database.
      */
     public static void close() throws DatabaseException {
+        if (statsCatalogDB != null) {
+            statsCatalogDB.close();
+        }
+        if (indexCatalogDB != null) {
+            indexCatalogDB.close();
+        }
         if (catalogDB != null) {
             catalogDB.close();
         }
+        tables = Collections.emptyMap();
+        indexes = Collections.emptyMap();
+        stats = Collections.emptyMap();
     }
     
     /**
@@ -104,6 +198,9 @@ public class Catalog {
             valueBuffer.writeBoolean(col.isPrimaryKey());
         }
         
+        /* Finally, write the format of the table's keys. */
+        valueBuffer.writeByte(table.getKeyFormat());
+        
         /* Prepare the DatabaseEntry objects for the key and value. */
         DatabaseEntry key = new DatabaseEntry(keyBuffer.getBufferBytes(), 0,
                                               keyBuffer.getBufferLength());
@@ -117,66 +214,64 @@ public class Catalog {
          * Add the entry to the catalog, using putNoOverwrite() to make
          * sure there isn't already a table with the same name.
          */
-        return catalogDB.putNoOverwrite(null, key, value);
+        OperationStatus ret = catalogDB.putNoOverwrite(null, key, value);
+        if (ret == OperationStatus.SUCCESS) {
+            /*
+             * Cache the entry exactly as it will be read back from the
+             * catalog (e.g., with the column indices filled in).
+             */
+            cacheTable(table.getName(), readTable(value));
+        }
+        return ret;
     }
     
     /**
-     * Reads the entry for the specified table from the catalog of
+     * Looks up the entry for the specified table in the catalog of
      * metadata and adds the column information to the Table object.
      *
      * @param  table  the table whose metadata we need to retrieve
      * @return <code>OperationStatus.NOTFOUND</code> if the table is not in
      *         the catalog, and <code>OperationStatus.SUCCESS</code> otherwise.
-     * @throws DeadlockException if deadlock occurs while accessing
-     *         the catalog's underlying database.
-     * @throws DatabaseException if Berkeley DB encounters another problem
-     *         accessing the catalog's underlying database.
      */
-    public static OperationStatus getMetadata(Table table)
-        throws DatabaseException, DeadlockException
-    {
-        /* 
-         * Turn the table's name into an array of bytes, 
-         * and use it to create the key for the key/value pair
-         * we're looking for.
-         */
-        byte[] nameBytes = table.getName().getBytes();
-        DatabaseEntry key = new DatabaseEntry(nameBytes);
+    public static OperationStatus getMetadata(Table table) {
+        TableEntry entry = tables.get(table.getName());
+        if (entry == null) {
+            return OperationStatus.NOTFOUND;
+        }
         
         /* 
-         * Prepare a DatabaseEntry to receive the value portion 
-         * of the key/value pair.
+         * Give the table its own Column objects, so that they can
+         * refer to it.
          */
-        DatabaseEntry value = new DatabaseEntry();
-        
-        /* Try to get the key/value pair. */
-        OperationStatus ret = catalogDB.get(null, key, value, null);
-        if (ret != OperationStatus.SUCCESS) {
-            return ret;
+        for (Column info : entry.columns) {
+            Column col = new Column(info.getName(), table);
+            col.useColInfo(info);
+            table.addColumn(col);
         }
+        table.setKeyFormat(entry.keyFormat);
         
-        /* 
-         * Process the table info. from the catalog entry. 
-         *
-         * We use a RowInput object, and read the individual pieces
-         * of info. in the same order that they were written in
-         * putMetadata().
-         */
-        RowInput buffer = new RowInput(value.getData());
+        return OperationStatus.SUCCESS;
+    }
+    
+    /*
+     * Decodes a table's entry in the catalog.
+     *
+     * We use a RowInput object, and read the individual pieces of info.
+     * in the same order that they were written in putMetadata().
+     */
+    private static TableEntry readTable(DatabaseEntry value) {
+        RowInput buffer = new RowInput(value.getData(), value.getOffset(),
+                                       value.getSize());
         
         /* First, the number of columns. */
         int numColumns = buffer.readNextByte();
         
-        /*
-         * Next, the metadata for each column. 
-         * We create the corresponding Column objects and add them to the
-         * Table object.
-         */
+        /* Next, the metadata for each column. */
+        Column[] columns = new Column[numColumns];
         for (int i = 0; i < numColumns; i++) {
             /* the column name */
             int colNameLength = buffer.readNextByte();
-            String colName = buffer.readNextBytes(colNameLength);
-            Column col = new Column(colName, table);
+            Column col = new Column(buffer.readNextBytes(colNameLength));
             
             /* the column info */
             col.setType(buffer.readNextByte());
@@ -185,12 +280,16 @@ public class Catalog {
                                                    buffer.readNextBoolean());
             col.applyOpts(opts);
             col.setIndex(i);
-            
-            /* add the column to the table */
-            table.addColumn(col);
+            columns[i] = col;
         }
         
-        return OperationStatus.SUCCESS;
+        /* Finally, the key format, which older entries don't have. */
+        int keyFormat = KeyEncoding.RAW;
+        if (buffer.bytesRemaining() > 0) {
+            keyFormat = buffer.readNextByte();
+        }
+        
+        return new TableEntry(columns, keyFormat);
     }
     
     /**
@@ -218,6 +317,346 @@ public class Catalog {
         }
         
         /* Remove the entry from the catalog. */
-        return catalogDB.delete(null, key);
+        OperationStatus ret = catalogDB.delete(null, key);
+        cacheTable(tableName, null);
+        return ret;
+    }
+    
+    /**
+     * Adds an entry to the catalog for the specified index.
+     *
+     * @param  index  the index whose metadata we need to add
+     * @return <code>OperationStatus.KEYEXIST</code> if there is already
+     *         an index with the same name, and 
+     *         <code>OperationStatus.SUCCESS</code> otherwise.
+     * @throws DeadlockException if deadlock occurs while accessing
+     *         the index catalog's underlying database.
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         accessing the index catalog's underlying database.
+     */
+    public static OperationStatus putIndex(Index index)
+        throws DeadlockException, DatabaseException, IOException
+    {
+        RowOutput keyBuffer = new RowOutput();
+        RowOutput valueBuffer = new RowOutput();
+        
+        /* 
+         * The key is the index's name, and the value is the name of
+         * the table and the name of the column, each preceded by its 
+         * length.
+         */
+        keyBuffer.writeBytes(index.getName());
+        valueBuffer.writeByte(index.getTableName().length());
+        valueBuffer.writeBytes(index.getTableName());
+        valueBuffer.writeByte(index.getColName().length());
+        valueBuffer.writeBytes(index.getColName());
+        
+        DatabaseEntry key = new DatabaseEntry(keyBuffer.getBufferBytes());
+        DatabaseEntry value = new DatabaseEntry(valueBuffer.getBufferBytes());
+        keyBuffer.close();
+        valueBuffer.close();
+        
+        OperationStatus ret = indexCatalogDB.putNoOverwrite(null, key, value);
+        if (ret == OperationStatus.SUCCESS) {
+            cacheIndex(index.getName(), new Index(index.getName(),
+                                                  index.getTableName(),
+                                                  index.getColName()));
+        }
+        return ret;
+    }
+    
+    /**
+     * Returns Index objects for all of the indexes on the specified
+     * table.  The indexes are not opened.
+     *
+     * @param  table  the table whose indexes we want
+     * @return  a list of the table's indexes (possibly empty)
+     */
+    public static ArrayList<Index> getIndexes(Table table) {
+        ArrayList<Index> indexList = new ArrayList<Index>();
+        
+        /* There are few indexes, so we just scan all of them. */
+        for (Index info : indexes.values()) {
+            if (info.getTableName().equals(table.getName())) {
+                indexList.add(new Index(info.getName(), info.getTableName(),
+                                        info.getColName()));
+            }
+        }
+        
+        return indexList;
+    }
+    
+    /**
+     * Returns an Index object for the index with the specified name.
+     * The index is not opened.
+     *
+     * @param  name  the name of the index
+     * @return  the index, or null if there is no index with that name
+     */
+    public static Index getIndex(String name) {
+        Index info = indexes.get(name);
+        if (info == null) {
+            return null;
+        }
+        return new Index(info.getName(), info.getTableName(),
+                         info.getColName());
+    }
+    
+    /**
+     * Removes the entry for the specified index from the catalog.
+     *
+     * @param  index  the index whose metadata we need to remove
+     * @return <code>OperationStatus.NOTFOUND</code> if the index is not in
+     *         the catalog, and <code>OperationStatus.SUCCESS</code> otherwise.
+     * @throws DeadlockException if deadlock occurs while accessing
+     *         the index catalog's underlying database.
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         accessing the index catalog's underlying database.
+     */
+    public static OperationStatus removeIndex(Index index)
+        throws DeadlockException, DatabaseException
+    {
+        DatabaseEntry key = new DatabaseEntry(index.getName().getBytes());
+        OperationStatus ret = indexCatalogDB.delete(null, key);
+        cacheIndex(index.getName(), null);
+        return ret;
+    }
+    
+    /**
+     * Stores the statistics of the specified table in the catalog,
+     * replacing any that were stored before.
+     *
+     * @param  table  the table that was analyzed
+     * @param  tableStats  its statistics
+     * @throws DeadlockException if deadlock occurs while accessing
+     *         the statistics' underlying database.
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         accessing the statistics' underlying database.
+     */
+    public static void putStats(Table table, TableStats tableStats)
+        throws DeadlockException, DatabaseException, IOException
+    {
+        RowOutput keyBuffer = new RowOutput();
+        RowOutput valueBuffer = new RowOutput();
+        keyBuffer.writeBytes(table.getName());
+        
+        /*
+         * The value is the number of rows and the time of the analysis,
+         * followed by the statistics of each column.
+         */
+        valueBuffer.writeLong(tableStats.getNumRows());
+        valueBuffer.writeLong(tableStats.getAnalyzedTime());
+        valueBuffer.writeByte(tableStats.numColumns());
+        for (int i = 0; i < tableStats.numColumns(); i++) {
+            ColumnStats colStats = tableStats.getColumn(i);
+            valueBuffer.writeByte(colStats.getType());
+            valueBuffer.writeLong(colStats.getNumNulls());
+            valueBuffer.writeLong(colStats.getNumValues());
+            writeValue(valueBuffer, colStats.getMin());
+            writeValue(valueBuffer, colStats.getMax());
+            valueBuffer.write(colStats.getSketch().getRegisters());
+            
+            Object[] bounds = colStats.getHistogram();
+            valueBuffer.writeInt(bounds == null ? 0 : bounds.length);
+            for (int j = 0; bounds != null && j < bounds.length; j++) {
+                writeValue(valueBuffer, bounds[j]);
+            }
+        }
+        
+        DatabaseEntry key = new DatabaseEntry(keyBuffer.getBufferBytes());
+        DatabaseEntry value = new DatabaseEntry(valueBuffer.getBufferBytes());
+        keyBuffer.close();
+        valueBuffer.close();
+        
+        statsCatalogDB.put(null, key, value);
+        cacheStats(table.getName(), readStats(value));
+    }
+    
+    /**
+     * Returns the statistics of the table with the specified name.
+     *
+     * @param  tableName  the name of the table
+     * @return  the statistics, or null if the table hasn't been analyzed
+     */
+    public static TableStats getStats(String tableName) {
+        return stats.get(tableName);
+    }
+    
+    /**
+     * Removes the statistics of the specified table from the catalog,
+     * if there are any.
+     *
+     * @param  table  the table whose statistics we need to remove
+     * @throws DeadlockException if deadlock occurs while accessing
+     *         the statistics' underlying database.
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         accessing the statistics' underlying database.
+     */
+    public static void removeStats(Table table)
+        throws DeadlockException, DatabaseException
+    {
+        DatabaseEntry key = new DatabaseEntry(table.getName().getBytes());
+        statsCatalogDB.delete(null, key);
+        cacheStats(table.getName(), null);
+    }
+    
+    /*
+     * Decodes a table's entry in the statistics database, reading the
+     * values in the order they were written in putStats().
+     */
+    private static TableStats readStats(DatabaseEntry value) {
+        RowInput buffer = new RowInput(value.getData(), value.getOffset(),
+                                       value.getSize());
+        long numRows = buffer.readNextLong();
+        long analyzedTime = buffer.readNextLong();
+        ColumnStats[] columns = new ColumnStats[buffer.readNextByte()];
+        for (int i = 0; i < columns.length; i++) {
+            int type = buffer.readNextByte();
+            long numNulls = buffer.readNextLong();
+            long numValues = buffer.readNextLong();
+            Object min = readValue(buffer);
+            Object max = readValue(buffer);
+            
+            byte[] registers = new byte[HyperLogLog.NUM_REGISTERS];
+            for (int j = 0; j < registers.length; j++) {
+                registers[j] = buffer.readNextByte();
+            }
+            
+            Object[] bounds = null;
+            int numBounds = buffer.readNextInt();
+            if (numBounds > 0) {
+                bounds = new Object[numBounds];
+                for (int j = 0; j < numBounds; j++) {
+                    bounds[j] = readValue(buffer);
+                }
+            }
+            columns[i] = new ColumnStats(type, numNulls, numValues, min, max,
+                                         new HyperLogLog(registers), bounds);
+        }
+        return new TableStats(numRows, analyzedTime, columns);
+    }
+    
+    /*
+     * Writes a value from the statistics, preceded by a tag that
+     * gives its type.
+     */
+    private static void writeValue(RowOutput buffer, Object val)
+        throws IOException
+    {
+        if (val == null) {
+            buffer.writeByte(NULL_VAL);
+        } else if (val instanceof Integer) {
+            buffer.writeByte(INT_VAL);
+            buffer.writeInt((Integer)val);
+        } else if (val instanceof Double) {
+            buffer.writeByte(REAL_VAL);
+            buffer.writeDouble((Double)val);
+        } else {
+            String s = (String)val;
+            buffer.writeByte(STRING_VAL);
+            buffer.writeInt(s.length());
+            buffer.writeBytes(s);
+        }
+    }
+    
+    /*
+     * Reads a value written by writeValue().
+     */
+    private static Object readValue(RowInput buffer) {
+        switch (buffer.readNextByte()) {
+            case INT_VAL:
+                return buffer.readNextInt();
+            case REAL_VAL:
+                return buffer.readNextDouble();
+            case STRING_VAL:
+                return buffer.readNextBytes(buffer.readNextInt());
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Returns the version of the schema of the database, which changes
+     * whenever a table or index is created or dropped.  A statement
+     * that was parsed under an earlier version must be parsed again
+     * (see PreparedSQL.revalidate()).
+     *
+     * @return  the schema version
+     */
+    public static long getSchemaVersion() {
+        return schemaVersion;
+    }
+    
+    /*
+     * Replaces the in-memory map of tables with a copy in which the
+     * specified table has the specified entry (or none, if it is null).
+     */
+    private static synchronized void cacheTable(String name, TableEntry entry) {
+        Map<String, TableEntry> map = new HashMap<String, TableEntry>(tables);
+        if (entry == null) {
+            map.remove(name);
+        } else {
+            map.put(name, entry);
+        }
+        tables = Collections.unmodifiableMap(map);
+        schemaVersion++;
+    }
+    
+    /*
+     * Replaces the in-memory map of indexes with a copy in which the
+     * specified index has the specified entry (or none, if it is null).
+     */
+    private static synchronized void cacheIndex(String name, Index entry) {
+        Map<String, Index> map = new TreeMap<String, Index>(indexes);
+        if (entry == null) {
+            map.remove(name);
+        } else {
+            map.put(name, entry);
+        }
+        indexes = Collections.unmodifiableMap(map);
+        schemaVersion++;
+    }
+    
+    /*
+     * Replaces the in-memory map of statistics with a copy in which the
+     * specified table has the specified statistics (or none, if null).
+     */
+    private static synchronized void cacheStats(String name, TableStats entry) {
+        Map<String, TableStats> map = new HashMap<String, TableStats>(stats);
+        if (entry == null) {
+            map.remove(name);
+        } else {
+            map.put(name, entry);
+        }
+        stats = Collections.unmodifiableMap(map);
+    }
+    
+    /*
+     * Creates an Index object from an entry in the index catalog,
+     * reading the values in the order they were written in putIndex().
+     */
+    private static Index readIndex(DatabaseEntry key, DatabaseEntry value) {
+        RowInput keyIn = new RowInput(key.getData(), key.getOffset(),
+                                      key.getSize());
+        RowInput buffer = new RowInput(value.getData(), value.getOffset(),
+                                       value.getSize());
+        String name = keyIn.readNextBytes(key.getSize());
+        String tableName = buffer.readNextBytes(buffer.readNextByte());
+        String colName = buffer.readNextBytes(buffer.readNextByte());
+        return new Index(name, tableName, colName);
+    }
+    
+    /*
+     * The decoded metadata of a table.  The Column objects are never
+     * given out, so the entry can't change once it has been created.
+     */
+    private static final class TableEntry {
+        final Column[] columns;
+        final int keyFormat;
+        
+        TableEntry(Column[] columns, int keyFormat) {
+            this.columns = columns;
+            this.keyFormat = keyFormat;
+        }
     }
 }
@@ -0,0 +1,302 @@
+/*
+ * ColumnStats.java
+ *
+ * DBMS Implementation
+ */
+
+/**
+ * A class that represents the statistics that ANALYZE gathers about a
+ * column of a table (see AnalyzeStatement): the number of NULL and
+ * non-NULL values, the smallest and largest values, a HyperLogLog
+ * sketch of the distinct values, and an equi-depth histogram.
+ *
+ * The histogram is an array of bounds, sorted in increasing order.
+ * Bucket i holds the values between bounds[i] and bounds[i + 1], and
+ * each bucket holds the same fraction of the non-NULL values, so a
+ * value that appears in many rows fills several consecutive buckets
+ * and appears more than once among the bounds.  The first and last
+ * bounds are the smallest and largest values, so there are always at
+ * least two bounds if there are any values.
+ *
+ * The methods that estimate the fraction of a table's rows that satisfy
+ * a condition (e.g., equalFraction()) are used to estimate the
+ * selectivity of comparisons (see Comparison.estimateSelectivity()) and
+ * the number of rows that an access path will produce (see AccessPath).
+ * Each one returns a fraction of all of the table's rows, including
+ * those in which the column is NULL.
+ */
+public class ColumnStats {
+    private int type;
+    private long numNulls;
+    private long numValues;
+    private Object min;
+    private Object max;
+    private HyperLogLog sketch;
+    private long numDistinct;   // the sketch's estimate
+    private Object[] bounds;    // the histogram, or null if no values
+
+    /**
+     * Constructs a ColumnStats object with the specified statistics.
+     *
+     * @param  type  the type of the column (e.g., Column.INTEGER)
+     * @param  numNulls  the number of rows in which the column is NULL
+     * @param  numValues  the number of rows in which it isn't
+     * @param  min  the smallest value (null if there are no values)
+     * @param  max  the largest value (null if there are no values)
+     * @param  sketch  the sketch of the distinct values
+     * @param  bounds  the bounds of the histogram (null if there are
+     *         no values, or if none of them were sampled, in which case
+     *         a single bucket from min to max is used)
+     */
+    public ColumnStats(int type, long numNulls, long numValues, Object min,
+                       Object max, HyperLogLog sketch, Object[] bounds)
+    {
+        this.type = type;
+        this.numNulls = numNulls;
+        this.numValues = numValues;
+        this.min = min;
+        this.max = max;
+        this.sketch = sketch;
+        this.bounds = bounds;
+        if (bounds == null && numValues > 0) {
+            this.bounds = new Object[] { min, max };
+        }
+
+        /* The estimate can't be more than the number of values. */
+        long estimate = Math.min(sketch.estimate(), numValues);
+        this.numDistinct = Math.max(estimate, Math.min(numValues, 1));
+    }
+
+    /**
+     * Returns the statistics for the specified column from the WHERE
+     * clause, which must have been bound to a TableIterator, or null
+     * if its table hasn't been analyzed.
+     *
+     * @param  col  the column
+     * @return  the statistics, or null if there are none
+     */
+    public static ColumnStats of(Column col) {
+        TableIterator iter = col.getTableIterator();
+        if (iter == null) {
+            return null;
+        }
+        TableStats stats = Catalog.getStats(iter.getTable().getName());
+        if (stats == null || col.getIndex() >= stats.numColumns()) {
+            return null;
+        }
+        return stats.getColumn(col.getIndex());
+    }
+
+    /** Returns the type of the column. */
+    public int getType() {
+        return this.type;
+    }
+
+    /** Returns the number of rows in which the column is NULL. */
+    public long getNumNulls() {
+        return this.numNulls;
+    }
+
+    /** Returns the number of rows in which the column is not NULL. */
+    public long getNumValues() {
+        return this.numValues;
+    }
+
+    /** Returns the smallest value, or null if there are no values. */
+    public Object getMin() {
+        return this.min;
+    }
+
+    /** Returns the largest value, or null if there are no values. */
+    public Object getMax() {
+        return this.max;
+    }
+
+    /** Returns the sketch of the distinct values. */
+    public HyperLogLog getSketch() {
+        return this.sketch;
+    }
+
+    /**
+     * Returns the bounds of the histogram, or null if there are no
+     * values.
+     */
+    public Object[] getHistogram() {
+        return this.bounds;
+    }
+
+    /**
+     * Returns the estimated number of distinct non-NULL values, which
+     * is at least 1 if there are any values.
+     */
+    public long getNumDistinct() {
+        return this.numDistinct;
+    }
+
+    /**
+     * Returns the fraction of the rows in which the column is NULL.
+     */
+    public double nullFraction() {
+        long numRows = this.numNulls + this.numValues;
+        return (numRows == 0 ? 0 : (double)this.numNulls / numRows);
+    }
+
+    /**
+     * Determines whether the estimates can be used for comparisons with
+     * the specified value -- i.e., whether the value is a number and
+     * the column is numeric, or both are strings.
+     *
+     * @param  val  the value
+     * @return  true if the value can be compared with the column's values
+     */
+    public boolean canCompare(Object val) {
+        if (this.type == Column.INTEGER || this.type == Column.REAL) {
+            return (val instanceof Number);
+        }
+        return (val instanceof String);
+    }
+
+    /**
+     * Estimates the fraction of the rows in which the column is equal
+     * to the specified value.  A value that spans several buckets of
+     * the histogram is given the rows of those buckets; any other value
+     * is assumed to be as common as the average distinct value.
+     *
+     * @param  val  the value, which must be comparable (see canCompare())
+     * @return  the estimated fraction
+     */
+    public double equalFraction(Object val) {
+        if (this.numValues == 0 || compare(val, this.min) < 0 ||
+            compare(val, this.max) > 0) {
+            return 0;
+        }
+        double nonNull = 1 - this.nullFraction();
+
+        int count = 0;
+        for (Object bound : this.bounds) {
+            if (compare(bound, val) == 0) {
+                count++;
+            }
+        }
+        int numBuckets = this.bounds.length - 1;
+        if (count >= 2) {
+            return nonNull * (count - 1) / numBuckets;
+        }
+        return nonNull / this.getNumDistinct();
+    }
+
+    /**
+     * Estimates the fraction of the rows in which the column is less
+     * than (or, if orEqual is true, less than or equal to) the
+     * specified value.  Numeric values are assumed to be spread evenly
+     * within each bucket of the histogram, and a string is assumed to
+     * be halfway through its bucket.
+     *
+     * @param  val  the value, which must be comparable (see canCompare())
+     * @param  orEqual  should values equal to val be included?
+     * @return  the estimated fraction
+     */
+    public double lessFraction(Object val, boolean orEqual) {
+        if (this.numValues == 0) {
+            return 0;
+        }
+        double nonNull = 1 - this.nullFraction();
+
+        int numBuckets = this.bounds.length - 1;
+        double buckets = 0;
+        for (int i = 0; i < numBuckets; i++) {
+            Object lo = this.bounds[i];
+            Object hi = this.bounds[i + 1];
+            if (compare(hi, val) < 0) {
+                buckets += 1;
+            } else {
+                if (compare(lo, val) < 0) {
+                    buckets += interpolate(lo, hi, val);
+                }
+                break;
+            }
+        }
+
+        double fraction = nonNull * buckets / numBuckets;
+        if (orEqual) {
+            fraction += this.equalFraction(val);
+        }
+        return Math.min(fraction, nonNull);
+    }
+
+    /**
+     * Estimates the fraction of the rows in which the column is within
+     * the specified range.
+     *
+     * @param  low  the lower bound (null if there is none)
+     * @param  lowInclusive  are values equal to low in the range?
+     * @param  high  the upper bound (null if there is none)
+     * @param  highInclusive  are values equal to high in the range?
+     * @return  the estimated fraction
+     */
+    public double rangeFraction(Object low, boolean lowInclusive,
+                                Object high, boolean highInclusive)
+    {
+        double upper = (high == null ? 1 - this.nullFraction() :
+                        this.lessFraction(high, highInclusive));
+        double lower = (low == null ? 0 :
+                        this.lessFraction(low, !lowInclusive));
+        return Math.max(upper - lower, 0);
+    }
+
+    /**
+     * Estimates the fraction of the rows in which the column is a string
+     * that begins with the specified prefix.
+     *
+     * @param  prefix  the prefix
+     * @return  the estimated fraction
+     */
+    public double prefixFraction(String prefix) {
+        /*
+         * The strings with the prefix are those from the prefix itself
+         * up to the prefix with its last char incremented, after
+         * removing any trailing chars that can't be incremented.
+         */
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) >= 0xFF) {
+            end--;
+        }
+        String next = null;
+        if (end > 0) {
+            next = prefix.substring(0, end - 1) +
+                   (char)(prefix.charAt(end - 1) + 1);
+        }
+        return this.rangeFraction(prefix, true, next, false);
+    }
+
+    /*
+     * Returns the position of val within the bucket from lo to hi,
+     * as a fraction of the bucket.
+     */
+    private static double interpolate(Object lo, Object hi, Object val) {
+        if (!(val instanceof Number)) {
+            return 0.5;
+        }
+        double l = ((Number)lo).doubleValue();
+        double h = ((Number)hi).doubleValue();
+        double v = ((Number)val).doubleValue();
+        return (h > l ? Math.min((v - l) / (h - l), 1) : 0.5);
+    }
+
+    /**
+     * Compares two values of a column, comparing numbers by value
+     * (so that an INTEGER constant can be compared with a REAL column).
+     *
+     * @param  a  an Integer, Double, or String
+     * @param  b  a value of the same kind as a
+     * @return  a negative number, zero, or a positive number if a is
+     *          less than, equal to, or greater than b
+     */
+    public static int compare(Object a, Object b) {
+        if (a instanceof Number) {
+            return Double.compare(((Number)a).doubleValue(),
+                                  ((Number)b).doubleValue());
+        }
+        return ((String)a).compareTo((String)b);
+    }
+}
@@ -17,6 +17,21 @@ public class CommitStatement extends SQLStatement {
     }
     
     public void execute() throws DatabaseException, DeadlockException {
-        /* not implemented for this assignment */
+        try {
+            Transaction txn = DBMS.getTxn();
+            if (txn == null) {
+                throw new Exception("There is no transaction in progress");
+            }
+            
+            /* 
+             * The transaction has ended even if the commit fails,
+             * since BDB aborts a transaction whose commit fails.
+             */
+            DBMS.setTxn(null);
+            txn.commit();
+            System.out.println("Committed transaction.");
+        } catch (Exception e) {
+            this.reportError(e, "Could not commit transaction");
+        }
     }
 }
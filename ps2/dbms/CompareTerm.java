@@ -85,6 +85,26 @@ public class CompareTerm {
         return this.valType;
     }
     
+    /**
+     * Replaces the value of an operand with a fixed value, and sets its
+     * type to match.  Used to supply the values of a prepared statement.
+     *
+     * @param  val  the new value (an Integer, Double, or String)
+     * @throws IllegalArgumentException if the value has another type
+     */
+    public void setValue(Object val) {
+        if (val instanceof Integer) {
+            this.valType = INTEGER;
+        } else if (val instanceof Double) {
+            this.valType = REAL;
+        } else if (val instanceof String) {
+            this.valType = STRING;
+        } else {
+            throw new IllegalArgumentException("invalid operand: " + val);
+        }
+        this.value = val;
+    }
+    
     /**
      * Gets the operand's value.
      *
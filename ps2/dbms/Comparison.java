@@ -1,186 +1,566 @@
-/*
- * Comparison.java
- *
- * DBMS Implementation
- */
-
-import java.util.regex.Pattern;
-
-/**
- * A class that represents a comparison appearing in a WHERE clause.
- */
-public class Comparison extends ConditionalExpression {
-    /** A comparison involving = or == */
-    public static final int EQ = 0;
-    
-    /** A comparison involving != or <> */
-    public static final int NOTEQ = 1;
-    
-    /** A comparison involving < */
-    public static final int LT = 2;
-    
-    /** A comparison involving > */
-    public static final int GT = 3;
-    
-    /** A comparison involving <= */
-    public static final int LTEQ = 4;
-    
-    /** A comparison involving > */
-    public static final int GTEQ = 5;
-    
-    /** A comparison involving LIKE */
-    public static final int LIKE = 6;
-    
-    /** A comparison involving CLIKE */
-    public static final int CLIKE = 7;
-    
-    /** A comparison involving IS NULL */
-    public static final int IS_NULL = 8;
-    
-    /** A comparison involving IS NOT NULL */
-    public static final int IS_NOT_NULL = 9;
-    
-    private static final int MINTYPE = 0;
-    private static final int MAXTYPE = 9;
-    
-    private int type;
-    private CompareTerm left;
-    private CompareTerm right;
-    private Pattern regex;
-    
-    /**
-     * Constructs a Comparison object that represents a comparison involving
-     * the specified operator and operands.
-     *
-     * @param  type  the type of comparison (i.e., the operator)
-     * @param  left  the left operand
-     * @param  right the right operand (possibly null)
-     */
-    public Comparison(int type, CompareTerm left, CompareTerm right) {
-        if (type < MINTYPE || type > MAXTYPE)
-            throw new IllegalArgumentException("invalid type: " + type);
-        this.type = type;
-        
-        this.left = left;
-        this.right = right;
-        
-        /* For LIKE and CLIKE, create a Pattern object for the regex. */
-        if (type == LIKE || type == CLIKE) {
-            /* Convert SQL regex to Java regex. */
-            String expr = (String)this.right.getValue();
-            expr = expr.replace("%", ".*");
-            expr = expr.replace('_', '.');
-            
-            if (type == LIKE)
-                this.regex = Pattern.compile(expr);
-            else
-                this.regex = Pattern.compile(expr, Pattern.CASE_INSENSITIVE);
-        }
-    }
-    
-    /**
-     * Returns the left operand of the comparison represented by the called
-     * object.
-     *
-     * @return  the left operand
-     */
-    public CompareTerm getLeftTerm() {
-        return this.left;
-    }
-    
-    /**
-     * Returns the right operand of the comparison represented by the called
-     * object.
-     *
-     * @return  the right operand (null if it is a IS NULL or IS NOT NULL
-     *          comparison
-     */
-    public CompareTerm getRightTerm() {
-        return this.right;
-    }
-    
-    /**
-     * Returns the type of the comparison represented by the called
-     * object.
-     *
-     * @return  the type of the comparison -- i.e., one of the constants
-     * defined in this class (e.g., Comparison.EQ for equals)
-     */
-    public int getType() {
-        return this.type;
-    }
-    
-    /**
-     * Evaluates the comparison represented by the called object, based on
-     * the current values of the operands
-     *
-     * @return  true if the comparison is true, and false if it is false!
-     */
-    public boolean isTrue() {
-        Object leftVal = this.left.getValue();
-        Object rightVal = (right == null ? null : this.right.getValue());
-        
-        // To enable comparisons between integers and reals, 
-        // we turn all Integers into Doubles.
-        if (leftVal != null && leftVal instanceof Integer)
-            leftVal = new Double(((Integer)leftVal).doubleValue());
-        if (rightVal != null && rightVal instanceof Integer)
-            rightVal = new Double(((Integer)rightVal).doubleValue());
-        
-        // Comparisons with type mismatches are always false.
-        if (leftVal != null && rightVal != null &&
-            leftVal.getClass() != rightVal.getClass())
-            return false;
-        
-        switch (left.getValType()) {
-            case CompareTerm.INTEGER:
-            case CompareTerm.REAL:
-                return this.compareArgs((Double)leftVal, (Double)rightVal);
-            case CompareTerm.STRING:
-                return this.compareArgs((String)leftVal, 
-                  (rightVal == null ? null : (String)rightVal));
-            default:
-                throw new IllegalStateException("unknown value type " + 
-                  left.getValType() + " for left side of comparison");
-        }
-    }
-    
-    /*
-     * A helper method that performs the actual comparison.
-     */
-    private <T extends Comparable<T>> boolean
-      compareArgs(T leftArg, T rightArg) {
-        /* 
-         * Applying any standard comparison operator to a null value
-         * always produces a false result.
-         */
-        if (this.type != IS_NULL && this.type != IS_NOT_NULL &&
-            (leftArg == null || rightArg == null))
-            return false;
-        
-        switch (this.type) {
-            case EQ:
-                return (leftArg.compareTo(rightArg) == 0);
-            case NOTEQ:
-                return (leftArg.compareTo(rightArg) != 0);
-            case LT:
-                return (leftArg.compareTo(rightArg) < 0);
-            case GT:
-                return (leftArg.compareTo(rightArg) > 0);
-            case LTEQ:
-                return (leftArg.compareTo(rightArg) <= 0);
-            case GTEQ:
-                return (leftArg.compareTo(rightArg) >= 0);
-            case LIKE:
-            case CLIKE:
-                String leftString = leftArg.toString();
-                return (this.regex.matcher(leftString).matches());
-            case IS_NULL:
-                return (leftArg == null);
-            case IS_NOT_NULL:
-                return (leftArg != null);
-            default:
-                throw new IllegalStateException("unknown comparison type");
-        }
-    }
-}
+/*
+ * Comparison.java
+ *
+ * DBMS Implementation
+ */
+
+import java.util.function.BooleanSupplier;
+import java.util.function.IntPredicate;
+
+/**
+ * A class that represents a comparison appearing in a WHERE clause.
+ *
+ * A comparison can be evaluated by calling isTrue(), which works for
+ * every kind of operand, or by the predicate returned by compile(),
+ * which resolves the types of the operands once and then compares
+ * primitive values for each row.
+ */
+public class Comparison extends ConditionalExpression {
+    /** A comparison involving = or == */
+    public static final int EQ = 0;
+    
+    /** A comparison involving != or <> */
+    public static final int NOTEQ = 1;
+    
+    /** A comparison involving < */
+    public static final int LT = 2;
+    
+    /** A comparison involving > */
+    public static final int GT = 3;
+    
+    /** A comparison involving <= */
+    public static final int LTEQ = 4;
+    
+    /** A comparison involving > */
+    public static final int GTEQ = 5;
+    
+    /** A comparison involving LIKE */
+    public static final int LIKE = 6;
+    
+    /** A comparison involving CLIKE */
+    public static final int CLIKE = 7;
+    
+    /** A comparison involving IS NULL */
+    public static final int IS_NULL = 8;
+    
+    /** A comparison involving IS NOT NULL */
+    public static final int IS_NOT_NULL = 9;
+    
+    private static final int MINTYPE = 0;
+    private static final int MAXTYPE = 9;
+    
+    private int type;
+    private CompareTerm left;
+    private CompareTerm right;
+    private LikeMatcher matcher;    // for LIKE and CLIKE
+    
+    /**
+     * Constructs a Comparison object that represents a comparison involving
+     * the specified operator and operands.
+     *
+     * @param  type  the type of comparison (i.e., the operator)
+     * @param  left  the left operand
+     * @param  right the right operand (possibly null)
+     */
+    public Comparison(int type, CompareTerm left, CompareTerm right) {
+        if (type < MINTYPE || type > MAXTYPE)
+            throw new IllegalArgumentException("invalid type: " + type);
+        this.type = type;
+        
+        this.left = left;
+        this.right = right;
+        
+        /* For LIKE and CLIKE, compile the pattern. */
+        this.compilePattern();
+    }
+    
+    /*
+     * Compiles the pattern of a LIKE or CLIKE comparison (see
+     * LikeMatcher), unless it is the pattern that was compiled last.
+     */
+    private void compilePattern() {
+        if (this.type != LIKE && this.type != CLIKE) {
+            return;
+        }
+        String pattern = (String)this.right.getValue();
+        if (this.matcher != null && pattern.equals(this.matcher.toString())) {
+            return;
+        }
+        this.matcher = LikeMatcher.compile(pattern, this.type == CLIKE);
+    }
+    
+    /**
+     * Replaces the value of the left operand, which must not be a
+     * column.  Used to supply the values of a prepared statement.
+     *
+     * @param  val  the new value
+     * @throws IllegalArgumentException if the value is invalid
+     */
+    public void setLeftValue(Object val) {
+        this.left.setValue(val);
+    }
+    
+    /**
+     * Replaces the value of the right operand, which must not be a
+     * column.  Used to supply the values of a prepared statement.
+     *
+     * @param  val  the new value
+     * @throws IllegalArgumentException if the value is invalid (e.g.,
+     *         if the pattern of a LIKE isn't a String)
+     */
+    public void setRightValue(Object val) {
+        if ((this.type == LIKE || this.type == CLIKE) &&
+            !(val instanceof String)) {
+            throw new IllegalArgumentException("the pattern of a LIKE " +
+              "must be a string");
+        }
+        this.right.setValue(val);
+        this.compilePattern();
+    }
+    
+    /**
+     * Returns the left operand of the comparison represented by the called
+     * object.
+     *
+     * @return  the left operand
+     */
+    public CompareTerm getLeftTerm() {
+        return this.left;
+    }
+    
+    /**
+     * Returns the right operand of the comparison represented by the called
+     * object.
+     *
+     * @return  the right operand (null if it is a IS NULL or IS NOT NULL
+     *          comparison
+     */
+    public CompareTerm getRightTerm() {
+        return this.right;
+    }
+    
+    /**
+     * Returns the type of the comparison represented by the called
+     * object.
+     *
+     * @return  the type of the comparison -- i.e., one of the constants
+     * defined in this class (e.g., Comparison.EQ for equals)
+     */
+    public int getType() {
+        return this.type;
+    }
+    
+    /**
+     * Returns the matcher for the pattern of a LIKE or CLIKE comparison.
+     *
+     * @return  the matcher, or null if this isn't a LIKE or CLIKE
+     */
+    public LikeMatcher getMatcher() {
+        return this.matcher;
+    }
+    
+    /**
+     * Evaluates the comparison represented by the called object, based on
+     * the current values of the operands
+     *
+     * @return  true if the comparison is true, and false if it is false!
+     */
+    public boolean isTrue() {
+        Object leftVal = this.left.getValue();
+        Object rightVal = (right == null ? null : this.right.getValue());
+        
+        // To enable comparisons between integers and reals, 
+        // we turn all Integers into Doubles.
+        if (leftVal != null && leftVal instanceof Integer)
+            leftVal = new Double(((Integer)leftVal).doubleValue());
+        if (rightVal != null && rightVal instanceof Integer)
+            rightVal = new Double(((Integer)rightVal).doubleValue());
+        
+        // Comparisons with type mismatches are always false.
+        if (leftVal != null && rightVal != null &&
+            leftVal.getClass() != rightVal.getClass())
+            return false;
+        
+        switch (left.getValType()) {
+            case CompareTerm.INTEGER:
+            case CompareTerm.REAL:
+                return this.compareArgs((Double)leftVal, (Double)rightVal);
+            case CompareTerm.STRING:
+                return this.compareArgs((String)leftVal, 
+                  (rightVal == null ? null : (String)rightVal));
+            default:
+                throw new IllegalStateException("unknown value type " + 
+                  left.getValType() + " for left side of comparison");
+        }
+    }
+    
+    /**
+     * Compiles the comparison into a predicate (see
+     * ConditionalExpression.compile()).  A comparison of a column with
+     * a constant reads the column's value from its iterator without
+     * boxing it, and compares it with the constant, which is converted
+     * once; IS NULL and IS NOT NULL only check the row's header; and
+     * LIKE and CLIKE apply the pattern's matcher to the value of a
+     * string column.  Other comparisons -- e.g., comparisons of two
+     * columns -- are evaluated by isTrue().
+     *
+     * @return  the predicate
+     */
+    public BooleanSupplier compile() {
+        boolean leftIsCol = (this.left instanceof Column);
+        boolean rightIsCol = (this.right instanceof Column);
+        
+        /* A comparison of constants has the same result for every row. */
+        if (!leftIsCol && !rightIsCol) {
+            boolean result = this.isTrue();
+            return () -> result;
+        }
+        
+        if (this.type == IS_NULL || this.type == IS_NOT_NULL) {
+            TableIterator iter = ((Column)this.left).getTableIterator();
+            if (iter == null) {
+                return this::isTrue;
+            }
+            int colIndex = ((Column)this.left).getIndex();
+            return (this.type == IS_NULL ? () -> iter.isNull(colIndex) :
+                                           () -> !iter.isNull(colIndex));
+        }
+        
+        if (this.type == LIKE || this.type == CLIKE) {
+            if (!leftIsCol || rightIsCol) {
+                return this::isTrue;
+            }
+            Column col = (Column)this.left;
+            TableIterator iter = col.getTableIterator();
+            if (iter == null || col.getValType() != CompareTerm.STRING) {
+                return this::isTrue;
+            }
+            int colIndex = col.getIndex();
+            LikeMatcher m = this.matcher;
+            return () -> {
+                String colVal = (String)iter.getColumnVal(colIndex);
+                return (colVal != null && m.matches(colVal));
+            };
+        }
+        
+        if (leftIsCol && rightIsCol) {
+            return this::isTrue;
+        }
+        
+        /* 
+         * Put the column on the left, reversing the operator if the
+         * constant was on the left.
+         */
+        Column col = (Column)(leftIsCol ? this.left : this.right);
+        Object val = (leftIsCol ? this.right : this.left).getValue();
+        int op = (leftIsCol ? this.type : reverse(this.type));
+        TableIterator iter = col.getTableIterator();
+        int colIndex = col.getIndex();
+        if (iter == null) {
+            return this::isTrue;
+        }
+        
+        /* Comparisons with type mismatches are always false. */
+        if (col.getValType() == CompareTerm.STRING) {
+            if (!(val instanceof String)) {
+                return () -> false;
+            }
+            String s = (String)val;
+            IntPredicate test = signTest(op);
+            return () -> {
+                String colVal = (String)iter.getColumnVal(colIndex);
+                return (colVal != null && test.test(colVal.compareTo(s)));
+            };
+        }
+        
+        if (!(val instanceof Number)) {
+            return () -> false;
+        }
+        double d = ((Number)val).doubleValue();
+        if (col.getType() == Column.INTEGER) {
+            return compileInt(iter, colIndex, op, d);
+        } else {
+            return compileReal(iter, colIndex, op, d);
+        }
+    }
+    
+    /*
+     * Returns a predicate that compares the value of an INTEGER column
+     * with a constant.  There is a separate lambda for each operator,
+     * so that the JIT compiler can inline each of them.  The values are
+     * compared using Double.compare(), like the Doubles in isTrue().
+     */
+    private static BooleanSupplier compileInt(TableIterator iter, int i,
+                                              int op, double d) {
+        switch (op) {
+            case EQ:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getIntVal(i), d) == 0);
+            case NOTEQ:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getIntVal(i), d) != 0);
+            case LT:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getIntVal(i), d) < 0);
+            case GT:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getIntVal(i), d) > 0);
+            case LTEQ:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getIntVal(i), d) <= 0);
+            case GTEQ:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getIntVal(i), d) >= 0);
+            default:
+                throw new IllegalStateException("unknown comparison type");
+        }
+    }
+    
+    /*
+     * Returns a predicate that compares the value of a REAL column with
+     * a constant.  Like Double.compareTo() in isTrue(), Double.compare()
+     * treats -0.0 as less than 0.0 and NaN as greater than every other
+     * value, which is also how the keys (see KeyEncoding) and the
+     * statistics (see ColumnStats) order them, so the result doesn't
+     * depend on the access path.
+     */
+    private static BooleanSupplier compileReal(TableIterator iter, int i,
+                                               int op, double d) {
+        switch (op) {
+            case EQ:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getDoubleVal(i), d) == 0);
+            case NOTEQ:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getDoubleVal(i), d) != 0);
+            case LT:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getDoubleVal(i), d) < 0);
+            case GT:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getDoubleVal(i), d) > 0);
+            case LTEQ:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getDoubleVal(i), d) <= 0);
+            case GTEQ:
+                return () -> (!iter.isNull(i) &&
+                              Double.compare(iter.getDoubleVal(i), d) >= 0);
+            default:
+                throw new IllegalStateException("unknown comparison type");
+        }
+    }
+    
+    /**
+     * Estimates the cost of evaluating the comparison, based on the
+     * types of its operands and, for LIKE and CLIKE, the kind of its
+     * pattern (see LikeMatcher).  Comparisons of strings cost more
+     * than comparisons of numbers because the strings are unmarshalled.
+     *
+     * @return  the estimated cost
+     */
+    public double estimateCost() {
+        boolean leftIsCol = (this.left instanceof Column);
+        boolean rightIsCol = (this.right instanceof Column);
+        if (!leftIsCol && !rightIsCol) {
+            return 0;
+        }
+        switch (this.type) {
+            case IS_NULL:
+            case IS_NOT_NULL:
+                return 1;
+            case LIKE:
+            case CLIKE:
+                return 2 + this.matcher.cost();
+        }
+        if (leftIsCol && rightIsCol) {
+            return 6;   // evaluated by isTrue()
+        }
+        Column col = (Column)(leftIsCol ? this.left : this.right);
+        return (col.getValType() == CompareTerm.STRING ? 3 : 1);
+    }
+    
+    /**
+     * Estimates the fraction of rows for which the comparison is true.
+     * If the comparison involves a column whose table has been analyzed
+     * (see AnalyzeStatement), the estimate comes from the column's
+     * statistics; otherwise, fixed guesses are used for each operator:
+     * 1/10 for an equality, 1/3 for a range, and so on.
+     *
+     * @return  the estimated selectivity
+     */
+    public double estimateSelectivity() {
+        if (!(this.left instanceof Column) && !(this.right instanceof Column)) {
+            return (this.isTrue() ? 1 : 0);
+        }
+        double estimate = this.estimateFromStats();
+        if (estimate >= 0) {
+            return estimate;
+        }
+        switch (this.type) {
+            case EQ:
+            case IS_NULL:
+                return 0.1;
+            case NOTEQ:
+            case IS_NOT_NULL:
+                return 0.9;
+            case LIKE:
+            case CLIKE:
+                String pattern = this.matcher.toString();
+                if (pattern.equals(this.matcher.getPrefix())) {
+                    return 0.1;     // no wildcards
+                } else if (pattern.replace("%", "").isEmpty()) {
+                    return 0.9;     // matches every non-null value
+                }
+                return 0.25;
+            default:
+                return 1.0 / 3;
+        }
+    }
+    
+    /*
+     * Estimates the selectivity using the statistics of the column in
+     * the comparison, returning -1 if there are none or they can't be
+     * used -- e.g., for a comparison of two columns other than an
+     * equality, or with a parameter that hasn't been bound yet.
+     */
+    private double estimateFromStats() {
+        boolean leftIsCol = (this.left instanceof Column);
+        Column col = (Column)(leftIsCol ? this.left : this.right);
+        ColumnStats stats = ColumnStats.of(col);
+        if (stats == null) {
+            return -1;
+        } else if (this.type == EQ && leftIsCol &&
+                   this.right instanceof Column) {
+            /*
+             * Each value of the column with fewer distinct values is
+             * assumed to match one of the other column's values.
+             */
+            ColumnStats other = ColumnStats.of((Column)this.right);
+            if (other == null) {
+                return -1;
+            }
+            return (1 - stats.nullFraction()) * (1 - other.nullFraction()) /
+                   Math.max(Math.max(stats.getNumDistinct(),
+                            other.getNumDistinct()), 1);
+        } else if (this.type == IS_NULL) {
+            return stats.nullFraction();
+        } else if (this.type == IS_NOT_NULL) {
+            return 1 - stats.nullFraction();
+        }
+
+        CompareTerm other = (leftIsCol ? this.right : this.left);
+        if (other instanceof Column || !stats.canCompare(other.getValue())) {
+            return -1;
+        }
+        Object val = other.getValue();
+        switch (leftIsCol ? this.type : reverse(this.type)) {
+            case EQ:
+                return stats.equalFraction(val);
+            case NOTEQ:
+                return Math.max(1 - stats.nullFraction() -
+                                stats.equalFraction(val), 0);
+            case LT:
+                return stats.lessFraction(val, false);
+            case LTEQ:
+                return stats.lessFraction(val, true);
+            case GT:
+                return stats.rangeFraction(val, false, null, false);
+            case GTEQ:
+                return stats.rangeFraction(val, true, null, false);
+            case LIKE:
+                String pattern = this.matcher.toString();
+                String prefix = this.matcher.getPrefix();
+                if (!leftIsCol || prefix.isEmpty()) {
+                    return -1;
+                } else if (pattern.equals(prefix)) {
+                    return stats.equalFraction(pattern);    // no wildcards
+                } else if (pattern.equals(prefix + "%")) {
+                    return stats.prefixFraction(prefix);
+                }
+                return 0.25 * stats.prefixFraction(prefix);
+            default:
+                return -1;      // CLIKE
+        }
+    }
+    
+    /*
+     * Returns the operator that gives the same result when the operands
+     * are swapped.
+     */
+    private static int reverse(int type) {
+        switch (type) {
+            case LT:
+                return GT;
+            case GT:
+                return LT;
+            case LTEQ:
+                return GTEQ;
+            case GTEQ:
+                return LTEQ;
+            default:
+                return type;
+        }
+    }
+    
+    /*
+     * Returns a test of the result of compareTo() for the specified
+     * operator.
+     */
+    private static IntPredicate signTest(int type) {
+        switch (type) {
+            case EQ:
+                return c -> (c == 0);
+            case NOTEQ:
+                return c -> (c != 0);
+            case LT:
+                return c -> (c < 0);
+            case GT:
+                return c -> (c > 0);
+            case LTEQ:
+                return c -> (c <= 0);
+            case GTEQ:
+                return c -> (c >= 0);
+            default:
+                throw new IllegalStateException("unknown comparison type");
+        }
+    }
+    
+    /*
+     * A helper method that performs the actual comparison.
+     */
+    private <T extends Comparable<T>> boolean
+      compareArgs(T leftArg, T rightArg) {
+        /* 
+         * Applying any standard comparison operator to a null value
+         * always produces a false result.
+         */
+        if (this.type != IS_NULL && this.type != IS_NOT_NULL &&
+            (leftArg == null || rightArg == null))
+            return false;
+        
+        switch (this.type) {
+            case EQ:
+                return (leftArg.compareTo(rightArg) == 0);
+            case NOTEQ:
+                return (leftArg.compareTo(rightArg) != 0);
+            case LT:
+                return (leftArg.compareTo(rightArg) < 0);
+            case GT:
+                return (leftArg.compareTo(rightArg) > 0);
+            case LTEQ:
+                return (leftArg.compareTo(rightArg) <= 0);
+            case GTEQ:
+                return (leftArg.compareTo(rightArg) >= 0);
+            case LIKE:
+            case CLIKE:
+                String leftString = leftArg.toString();
+                return this.matcher.matches(leftString);
+            case IS_NULL:
+                return (leftArg == null);
+            case IS_NOT_NULL:
+                return (leftArg != null);
+            default:
+                throw new IllegalStateException("unknown comparison type");
+        }
+    }
+}
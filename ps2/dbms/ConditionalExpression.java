@@ -4,6 +4,8 @@
  * DBMS Implementation
  */
 
+import java.util.function.BooleanSupplier;
+
 /**
  * An abstract class that represents a conditional expression like those
  * found in the WHERE clause of a SQL statement.
@@ -63,4 +65,40 @@ public abstract class ConditionalExpression {
      * @return  true if the expression is true, and false if it is false!
      */
     public abstract boolean isTrue();
+    
+    /**
+     * Compiles the expression represented by the called object into a
+     * predicate that evaluates it, once the expression has been bound
+     * -- i.e., once its columns have been given the iterators that
+     * supply their values (see TableIterator), and the values of a
+     * prepared statement have been supplied.  The predicate must be
+     * compiled again if the expression is bound again.
+     *
+     * The default implementation simply calls isTrue().
+     *
+     * @return  the predicate
+     */
+    public BooleanSupplier compile() {
+        return this::isTrue;
+    }
+    
+    /**
+     * Estimates the cost of evaluating the expression for one row, in
+     * units of the cost of comparing an INTEGER column with a constant.
+     * Used to order the terms of an AND or OR (see AdaptiveJunction).
+     *
+     * @return  the estimated cost
+     */
+    public double estimateCost() {
+        return 1;
+    }
+    
+    /**
+     * Estimates the fraction of rows for which the expression is true.
+     *
+     * @return  the estimated selectivity, between 0 and 1
+     */
+    public double estimateSelectivity() {
+        return 0.5;
+    }
 }
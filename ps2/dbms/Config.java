@@ -0,0 +1,230 @@
+/*
+ * Config.java
+ *
+ * DBMS Implementation
+ */
+
+import java.io.*;
+import java.util.*;
+import com.sleepycat.je.*;
+
+/**
+ * A class that holds the configuration settings of the DBMS -- e.g.,
+ * the durability of commits and the size of the Berkeley DB cache.
+ *
+ * The settings are read from a properties file (dbms.properties in the
+ * current directory, if it exists, or the file given using
+ * <code>--config=file</code>), and can be overridden on the command line
+ * using flags of the form <code>--name=value</code>.  For example:
+ *
+ * <pre>java DBMS --durability=WRITE_NO_SYNC --cache.size=256</pre>
+ *
+ * The settings are:
+ *
+ * <ul>
+ * <li><code>durability</code>: how commits are made durable -- SYNC
+ *     (written and flushed to disk; the default), WRITE_NO_SYNC
+ *     (written to the operating system, so they survive a crash of the
+ *     DBMS but not of the machine), or NO_SYNC (left in memory until
+ *     the log buffer fills)</li>
+ * <li><code>cache.size</code>: the size of the Berkeley DB cache, in MB</li>
+ * <li><code>cache.percent</code>: the size of the cache as a percentage
+ *     of the JVM's heap (ignored if cache.size is given)</li>
+ * <li><code>log.file.size</code>: the maximum size of a log file, in MB</li>
+ * <li><code>group.commit.interval</code>: how long (in milliseconds) a
+ *     SYNC commit may wait for the commits of other sessions, so that
+ *     they can share a single fsync</li>
+ * <li><code>group.commit.threshold</code>: the number of waiting commits
+ *     at which the fsync is done without waiting for the rest of the
+ *     interval</li>
+ * <li><code>server.port</code>: if specified, the DBMS runs as a server
+ *     that accepts connections on this port (see Server) instead of
+ *     reading commands from the console</li>
+ * <li><code>server.threads</code>: the maximum number of clients that
+ *     the server serves at the same time</li>
+ * <li><code>table.cache.size</code>: the maximum number of tables whose
+ *     handles are kept open (see Table)</li>
+ * <li><code>table.cache.idle</code>: the number of seconds after which
+ *     the handles of a table that hasn't been used are closed (0, the
+ *     default, means never)</li>
+ * <li><code>statement.cache.size</code>: the number of parsed statements
+ *     that each session keeps for reuse (see Session)</li>
+ * <li><code>join.memory</code>: the memory (in MB) that a join may use
+ *     for its hash table before it partitions its inputs into temporary
+ *     files (see HashJoinIterator)</li>
+ * </ul>
+ *
+ * To allow access to the configuration from all other classes, we make
+ * all methods static, so that the class name can be used to invoke them.
+ */
+public class Config {
+    /** The properties file that is read if --config isn't given. */
+    public static final String DEFAULT_FILE = "dbms.properties";
+
+    public static final String DURABILITY = "durability";
+    public static final String CACHE_SIZE = "cache.size";
+    public static final String CACHE_PERCENT = "cache.percent";
+    public static final String LOG_FILE_SIZE = "log.file.size";
+    public static final String GROUP_COMMIT_INTERVAL = "group.commit.interval";
+    public static final String GROUP_COMMIT_THRESHOLD = "group.commit.threshold";
+    public static final String SERVER_PORT = "server.port";
+    public static final String SERVER_THREADS = "server.threads";
+    public static final String TABLE_CACHE_SIZE = "table.cache.size";
+    public static final String TABLE_CACHE_IDLE = "table.cache.idle";
+    public static final String STATEMENT_CACHE_SIZE = "statement.cache.size";
+    public static final String JOIN_MEMORY = "join.memory";
+
+    private static final String[] NAMES = {
+        DURABILITY, CACHE_SIZE, CACHE_PERCENT, LOG_FILE_SIZE,
+        GROUP_COMMIT_INTERVAL, GROUP_COMMIT_THRESHOLD, SERVER_PORT,
+        SERVER_THREADS, TABLE_CACHE_SIZE, TABLE_CACHE_IDLE,
+        STATEMENT_CACHE_SIZE, JOIN_MEMORY
+    };
+
+    private static Properties props = new Properties();
+
+    /**
+     * Reads the configuration from the properties file and the
+     * command-line arguments.
+     *
+     * @param  args  the command-line arguments
+     * @throws IOException if the properties file can't be read
+     * @throws IllegalArgumentException if an argument or setting is
+     *         invalid
+     */
+    public static void load(String[] args) throws IOException {
+        props = new Properties();
+
+        /* First, the properties file. */
+        String fileName = null;
+        for (String arg : args) {
+            if (arg.startsWith("--config=")) {
+                fileName = arg.substring("--config=".length());
+            }
+        }
+        File file = new File(fileName == null ? DEFAULT_FILE : fileName);
+        if (fileName != null || file.exists()) {
+            try (Reader in = new FileReader(file)) {
+                props.load(in);
+            }
+        }
+
+        /* Then the command-line flags, which take precedence. */
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("invalid argument " +
+                  arg + " (expected --name=value)");
+            }
+            String name = arg.substring(2, eq);
+            if (!name.equals("config")) {
+                props.setProperty(name, arg.substring(eq + 1));
+            }
+        }
+
+        for (String name : props.stringPropertyNames()) {
+            if (!Arrays.asList(NAMES).contains(name)) {
+                throw new IllegalArgumentException("unknown setting " + name);
+            }
+        }
+        getDurability();    // check that it is valid
+    }
+
+    /**
+     * Applies the settings to the configuration of the Berkeley DB
+     * environment.
+     *
+     * @param  envConfig  the environment configuration
+     * @throws IllegalArgumentException if a setting is invalid
+     */
+    public static void apply(EnvironmentConfig envConfig) {
+        envConfig.setDurability(getDurability());
+
+        if (props.getProperty(CACHE_SIZE) != null) {
+            envConfig.setCacheSize(getInt(CACHE_SIZE, 0) * 1024L * 1024L);
+        } else if (props.getProperty(CACHE_PERCENT) != null) {
+            envConfig.setCachePercent(getInt(CACHE_PERCENT, 0));
+        }
+
+        if (props.getProperty(LOG_FILE_SIZE) != null) {
+            long bytes = getInt(LOG_FILE_SIZE, 0) * 1024L * 1024L;
+            envConfig.setConfigParam(EnvironmentConfig.LOG_FILE_MAX,
+                                     Long.toString(bytes));
+        }
+
+        if (props.getProperty(GROUP_COMMIT_INTERVAL) != null) {
+            int ms = getInt(GROUP_COMMIT_INTERVAL, 0);
+            envConfig.setConfigParam(
+              EnvironmentConfig.LOG_GROUP_COMMIT_INTERVAL, ms + " ms");
+        }
+        if (props.getProperty(GROUP_COMMIT_THRESHOLD) != null) {
+            int n = getInt(GROUP_COMMIT_THRESHOLD, 0);
+            envConfig.setConfigParam(
+              EnvironmentConfig.LOG_GROUP_COMMIT_THRESHOLD, Integer.toString(n));
+        }
+    }
+
+    /**
+     * Returns the durability of commits.
+     *
+     * @return  the durability
+     * @throws IllegalArgumentException if the setting is invalid
+     */
+    public static Durability getDurability() {
+        String val = props.getProperty(DURABILITY, "SYNC");
+        val = val.trim().toUpperCase();
+        if (val.equals("SYNC")) {
+            return Durability.COMMIT_SYNC;
+        } else if (val.equals("WRITE_NO_SYNC")) {
+            return Durability.COMMIT_WRITE_NO_SYNC;
+        } else if (val.equals("NO_SYNC")) {
+            return Durability.COMMIT_NO_SYNC;
+        }
+        throw new IllegalArgumentException("invalid durability " + val +
+          " (expected SYNC, WRITE_NO_SYNC, or NO_SYNC)");
+    }
+
+    /**
+     * Returns the value of the specified integer setting, or the
+     * specified default if it isn't set.
+     *
+     * @param  name  the name of the setting
+     * @param  defaultVal  the default value
+     * @return  the value
+     * @throws IllegalArgumentException if the setting isn't a
+     *         non-negative integer
+     */
+    public static int getInt(String name, int defaultVal) {
+        String val = props.getProperty(name);
+        if (val == null) {
+            return defaultVal;
+        }
+        try {
+            int i = Integer.parseInt(val.trim());
+            if (i >= 0) {
+                return i;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("invalid value for " + name +
+          ": " + val);
+    }
+
+    /**
+     * Returns a description of the settings that were given.
+     */
+    public static String describe() {
+        StringBuilder str = new StringBuilder();
+        for (String name : NAMES) {
+            String val = props.getProperty(name);
+            if (val != null || name.equals(DURABILITY)) {
+                if (str.length() > 0) {
+                    str.append(", ");
+                }
+                str.append(name + "=" + (val == null ? "SYNC" : val.trim()));
+            }
+        }
+        return str.toString();
+    }
+}
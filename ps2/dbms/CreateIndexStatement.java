@@ -0,0 +1,86 @@
+/*
+ * CreateIndexStatement.java
+ *
+ * DBMS Implementation
+ */
+
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents a CREATE INDEX statement:
+ *
+ * <pre>CREATE INDEX name ON table(column);</pre>
+ */
+public class CreateIndexStatement extends SQLStatement {
+    private String indexName;
+    private String colName;
+    
+    /**
+     * Constructs a CreateIndexStatement object that will create an
+     * index with the specified name on the specified column of the
+     * specified table.
+     *
+     * @param  indexName  the name of the index
+     * @param  t  the table to be indexed
+     * @param  colName  the name of the column to be indexed
+     */
+    public CreateIndexStatement(String indexName, Table t, String colName) {
+        super(t);
+        this.indexName = indexName;
+        this.colName = colName;
+    }
+    
+    public boolean needsExclusiveAccess() {
+        return true;
+    }
+    
+    public void execute() throws DatabaseException, DeadlockException {
+        Table table = this.getTable(0);
+        Index index = new Index(this.indexName, table.getName(), this.colName);
+        boolean addedToCatalog = false;
+        
+        try {
+            if (table.open() != OperationStatus.SUCCESS) {
+                throw new Exception();  // error msg was printed in open()
+            }
+            
+            // Make sure the column exists and isn't the primary key, 
+            // which doesn't need a secondary index.
+            Column col = null;
+            for (int i = 0; i < table.numColumns(); i++) {
+                if (table.getColumn(i).getName().equals(this.colName)) {
+                    col = table.getColumn(i);
+                }
+            }
+            if (col == null) {
+                throw new Exception(table + ": no column named " +
+                                    this.colName);
+            }
+            if (col.isPrimaryKey()) {
+                throw new Exception(this.colName + " is the primary key " +
+                                    "of " + table);
+            }
+            
+            // Add the metadata for the index to the catalog, printing
+            // an error message if the index name is already in use.
+            if (Catalog.putIndex(index) == OperationStatus.KEYEXIST) {
+                throw new Exception(this.indexName + ": an index with " +
+                                    "this name already exists");
+            }
+            addedToCatalog = true;
+            
+            // Create the index's database, which will be populated 
+            // with entries for the rows already in the table.
+            index.open(table, true);
+            table.addIndex(index);
+            
+            System.out.println("Created index " + index + ".");
+        } catch (Exception e) {
+            if (addedToCatalog) {
+                Catalog.removeIndex(index);
+            }
+            
+            this.reportError(e, "Could not create index " + this.indexName);
+        }
+    }
+}
@@ -22,6 +22,10 @@ public class CreateStatement extends SQLStatement {
         super(t, colDefList);
     }
     
+    public boolean needsExclusiveAccess() {
+        return true;
+    }
+    
     public void execute() throws DatabaseException, DeadlockException {
         Table table = this.getTable(0);
         
@@ -71,11 +75,7 @@ public class CreateStatement extends SQLStatement {
             
             System.out.println("Created table " + table + ".");
         } catch (Exception e) {
-            String errMsg = e.getMessage();
-            if (errMsg != null) {
-                System.err.println(errMsg + ".");
-            }
-            System.err.println("Could not create table " + table + ".");
+            this.reportError(e, "Could not create table " + table);
         }
         
         // Because we could not use Table.open() above, the table is not
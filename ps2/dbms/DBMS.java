@@ -21,7 +21,8 @@ import com.sleepycat.je.*;
  * <br>
  * <code>java DBMS</code><br>
  * <br>
- * from the command line.
+ * from the command line.  The environment can be configured using a
+ * dbms.properties file or command-line flags (see Config).
  */
 public class DBMS {
     /** Set this to true to print debugging messages, and false to 
@@ -39,9 +40,7 @@ public class DBMS {
      * The main method for the DBMS application.
      */
     public static void main(String[] args) throws IOException {
-        Scanner console = new Scanner(System.in);
-        
-        init();
+        init(args);
         
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
@@ -56,40 +55,20 @@ public class DBMS {
             }
         });
         
-        while (true) {
+        /* 
+         * Run a session with the console, or accept sessions from
+         * clients if a server port was specified.
+         */
+        int port = Config.getInt(Config.SERVER_PORT, -1);
+        if (port >= 0) {
             try {
-                /* Get the command string from the user. */
-                System.out.println();
-                System.out.println("Enter command (q to quit): ");
-                String commandString = console.nextLine();
-                
-                if (commandString.equalsIgnoreCase("q")) {
-                    break;
-                }
-                
-                /* Parse the command string. */
-                StringReader commandStream = new StringReader(commandString);
-                Lexer l = new Lexer(commandStream);
-                Parser p = new Parser(l);
-                SQLStatement command = (SQLStatement)p.parse().value;
-                if (DEBUG) {
-                    System.out.println(command);
-                }
-                
-                /* Execute the SQL command. */
-                command.execute();
-            } catch (IllegalArgumentException e) {
-                System.err.println(e);
-            } catch (InvalidSyntaxException e) {
-                // error message will have been printed by the parser
-            } catch (NoSuchElementException e) {
-                // end-of-file was received by the Scanner
-                break;
-            } catch (Exception e) {
-                System.err.println("unexpected exception: " + e);
-                e.printStackTrace();
-                abort();
+                Server.run(port, Config.getInt(Config.SERVER_THREADS,
+                                               Server.DEFAULT_THREADS));
+            } catch (IOException e) {
+                System.err.println("server failed: " + e);
             }
+        } else {
+            new Session(System.in, System.out, System.err, null).run();
         }
         
         try {
@@ -98,19 +77,23 @@ public class DBMS {
             System.err.println("encountered exception shutting down normally: " + e);
             e.printStackTrace();
         }
-
-        console.close();
     }
     
     /**
-     * Initializes the DBMS -- initializing the underlying BDB environment,
-     * the catalog, and the in-memory cache of open tables.
+     * Initializes the DBMS -- reading the configuration, and initializing
+     * the underlying BDB environment, the catalog, and the in-memory
+     * cache of open tables.
+     *
+     * @param  args  the command-line arguments, which may override
+     *         settings from the properties file
      */
-    public static void init() {
+    public static void init(String[] args) {
         try {
+            Config.load(args);
             environmentInit();
             Catalog.open();
             Table.cacheInit();
+            StatsStatement.resetCounters();
         } catch (Exception e) {
             System.err.println("encountered exception while initializing: " + e);
             e.printStackTrace();
@@ -127,6 +110,7 @@ public class DBMS {
      *          or closing the catalog database
      */
     public static void shutdown() throws DatabaseException {
+        Session.abortAll();
         Table.cacheClose();
         Catalog.close();
         if (env != null) {
@@ -162,6 +146,55 @@ public class DBMS {
         return env;
     }
     
+    /**
+     * Returns the transaction begun by the most recent BEGIN WORK
+     * command in the current session, or null if there is no 
+     * transaction in progress.  Statements that are executed when there
+     * is no transaction in progress use their own auto-commit 
+     * transactions.
+     *
+     * @return  the transaction in progress, or null
+     */
+    public static Transaction getTxn() {
+        Session session = Session.current();
+        return (session == null ? null : session.getTxn());
+    }
+    
+    /**
+     * Sets the transaction in progress in the current session.  Used by
+     * BEGIN WORK to start a transaction, and by COMMIT and ROLLBACK 
+     * (with null) to end it.
+     *
+     * @param  t  the transaction, or null if it has ended
+     * @throws  IllegalStateException if the current thread isn't running
+     *          a session
+     */
+    public static void setTxn(Transaction t) {
+        Session session = Session.current();
+        if (session == null) {
+            throw new IllegalStateException("no session in this thread");
+        }
+        session.setTxn(t);
+    }
+    
+    /**
+     * Rolls back the transaction in progress, if any, after a statement
+     * failed part of the way through its changes.  BDB can't undo just
+     * the changes made by the statement, so the whole transaction is
+     * rolled back.
+     *
+     * @throws  DatabaseException if Berkeley DB encounters a problem
+     *          aborting the transaction
+     */
+    public static void abortTxn() throws DatabaseException {
+        Transaction t = getTxn();
+        if (t != null) {
+            setTxn(null);
+            t.abort();
+            System.err.println("Rolled back the transaction in progress.");
+        }
+    }
+    
     /**
      * Configures and opens the handle for the underlying DB environment
      *
@@ -191,6 +224,7 @@ public class DBMS {
         EnvironmentConfig envConfig = new EnvironmentConfig();
         envConfig.setTransactional(true);
         envConfig.setAllowCreate(true);
+        Config.apply(envConfig);
         env = new Environment(home, envConfig);
     }
 }
@@ -0,0 +1,37 @@
+/*
+ * DeallocateStatement.java
+ *
+ * DBMS Implementation
+ */
+
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents a DEALLOCATE statement, which removes a
+ * statement that was prepared using PREPARE:
+ *
+ * <pre>DEALLOCATE [PREPARE] name;</pre>
+ */
+public class DeallocateStatement extends SQLStatement {
+    private String name;
+    
+    /**
+     * Constructs a DeallocateStatement object that will remove the
+     * prepared statement with the specified name.
+     *
+     * @param  name  the name of the prepared statement
+     */
+    public DeallocateStatement(String name) {
+        super();
+        this.name = name;
+    }
+    
+    public void execute() throws DatabaseException, DeadlockException {
+        if (!Session.current().removePrepared(this.name)) {
+            this.reportError(this.name + ": no such prepared statement",
+                             "Could not deallocate statement " + this.name);
+            return;
+        }
+        System.out.println("Deallocated statement " + this.name + ".");
+    }
+}
@@ -8,11 +8,22 @@ import com.sleepycat.je.*;
 
 /**
  * A class that represents a DELETE statement.
+ *
+ * If there is a WHERE clause, the matching rows are deleted one at a
+ * time in a single pass of a cursor, in a single transaction (the
+ * transaction in progress, if there is one).  The access path of the
+ * cursor limits the pass to the range of primary keys (or index 
+ * entries) that the WHERE clause allows.  If there is no WHERE clause
+ * and no transaction in progress in any session, the table's database
+ * and its indexes are truncated instead, which is much faster than
+ * deleting the rows one at a time.  (Truncation closes the table's
+ * handles, and they couldn't be reopened while a transaction holds
+ * locks on the truncated databases.)
  */
 public class DeleteStatement extends SQLStatement {
-    /** 
+    /**
      * Constructs a DeleteStatement object involving the specified
-     * table and conditional expression.  If no conditional expression 
+     * table and conditional expression.  If no conditional expression
      * is specified, all rows will be deleted.
      *
      * @param  t  the table in which the deletes should occur
@@ -21,8 +32,91 @@ public class DeleteStatement extends SQLStatement {
     public DeleteStatement(Table t, ConditionalExpression where) {
         super(t, null, where);
     }
+
+    /*
+     * Truncating the table closes its handles, so no other statement
+     * can be using them.
+     */
+    public boolean needsExclusiveAccess() {
+        return (this.getWhere() == null);
+    }
+
+    /*
+     * Everything that an execution computes is kept outside the
+     * statement, so a parsed statement can be executed again.
+     */
+    public boolean isReusable() {
+        return true;
+    }
     
     public void execute() throws DatabaseException, DeadlockException {
-        /* not implemented for this assignment */
+        Table table = this.getTable(0);
+        Transaction txn = DBMS.getTxn();
+        boolean autoCommit = (txn == null);
+        TableIterator iter = null;
+        long startTime = System.currentTimeMillis();
+        long numDeleted = 0;
+        this.setUpdateCount(0);
+
+        try {
+            if (table.open() != OperationStatus.SUCCESS) {
+                throw new Exception();  // error msg was printed in open()
+            }
+
+            if (autoCommit) {
+                txn = DBMS.getEnv().beginTransaction(null, null);
+            }
+            if (this.getWhere() == null && autoCommit &&
+                !Session.otherTxnsInProgress()) {
+                numDeleted = this.truncate(table, txn);
+            } else {
+                iter = new TableIterator(this, table, true, txn,
+                                         new Object[table.numColumns()]);
+                while (iter.next()) {
+                    iter.deleteCurrent();
+                    numDeleted++;
+                }
+                iter.close();
+                iter = null;
+            }
+            if (autoCommit) {
+                txn.commit();
+            }
+
+            long elapsed = System.currentTimeMillis() - startTime;
+            this.setUpdateCount(numDeleted);
+            System.out.println("Deleted " + numDeleted + " " +
+                               (numDeleted == 1 ? "row" : "rows") +
+                               " from " + table + " in " +
+                               (elapsed / 1000.0) + " seconds.");
+        } catch (Exception e) {
+            if (iter != null) {
+                iter.close();
+            }
+
+            this.reportError(e, "Could not delete rows");
+
+            if (autoCommit && txn != null) {
+                txn.abort();
+            } else if (numDeleted > 0) {
+                DBMS.abortTxn();
+            }
+        }
+    }
+
+    /*
+     * Deletes all of the rows in the table by truncating its database
+     * and the databases of its indexes, returning the number of rows
+     * that were deleted.  Truncation requires that there be no open
+     * handles for the databases, so we close the table first.  It will
+     * be opened again by the next statement that uses it.
+     */
+    private long truncate(Table table, Transaction txn) throws Exception {
+        Environment env = DBMS.getEnv();
+        table.close();
+        for (Index index : Catalog.getIndexes(table)) {
+            env.truncateDatabase(txn, index.dbName(), false);
+        }
+        return env.truncateDatabase(txn, table.dbName(), true);
     }
 }
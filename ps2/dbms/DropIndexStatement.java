@@ -0,0 +1,53 @@
+/*
+ * DropIndexStatement.java
+ *
+ * DBMS Implementation
+ */
+
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents a DROP INDEX statement:
+ *
+ * <pre>DROP INDEX name;</pre>
+ */
+public class DropIndexStatement extends SQLStatement {
+    private String indexName;
+    
+    /**
+     * Constructs a DropIndexStatement object that will drop the index
+     * with the specified name.
+     *
+     * @param  indexName  the name of the index
+     */
+    public DropIndexStatement(String indexName) {
+        super();
+        this.indexName = indexName;
+    }
+    
+    public boolean needsExclusiveAccess() {
+        return true;
+    }
+    
+    public void execute() throws DatabaseException, DeadlockException {
+        try {
+            Index index = Catalog.getIndex(this.indexName);
+            if (index == null) {
+                throw new Exception(this.indexName + ": no such index");
+            }
+            
+            // Close the indexed table, which closes the handles for
+            // all of its indexes.  It will be reopened (without this 
+            // index) the next time that it is used.  This fails if a
+            // transaction in progress is using the table.
+            new Table(index.getTableName()).close();
+            
+            Catalog.removeIndex(index);
+            DBMS.getEnv().removeDatabase(null, index.dbName());
+            
+            System.out.println("Dropped index " + this.indexName + ".");
+        } catch (Exception e) {
+            this.reportError(e, "Could not drop index " + this.indexName);
+        }
+    }
+}
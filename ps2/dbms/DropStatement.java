@@ -19,6 +19,10 @@ public class DropStatement extends SQLStatement {
         super(t);
     }
     
+    public boolean needsExclusiveAccess() {
+        return true;
+    }
+    
     public void execute() throws DatabaseException, DeadlockException {
         Table table = this.getTable(0);
         
@@ -32,16 +36,21 @@ public class DropStatement extends SQLStatement {
                 throw new Exception(table + ": no such table");
             }
             
+            // Remove the table's indexes.
+            for (Index index : Catalog.getIndexes(table)) {
+                Catalog.removeIndex(index);
+                DBMS.getEnv().removeDatabase(null, index.dbName());
+            }
+            
+            // Remove the table's statistics, if it has been analyzed.
+            Catalog.removeStats(table);
+            
             // Remove the underlying database file.
             DBMS.getEnv().removeDatabase(null, table.dbName());
             
             System.out.println("Dropped table " + table + ".");
         } catch (Exception e) {
-            String errMsg = e.getMessage();
-            if (errMsg != null) {
-                System.err.println(errMsg + ".");
-            }
-            System.err.println("Could not drop table " + table + ".");
+            this.reportError(e, "Could not drop table " + table);
         }
     }
 }
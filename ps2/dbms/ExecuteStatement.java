@@ -0,0 +1,62 @@
+/*
+ * ExecuteStatement.java
+ *
+ * DBMS Implementation
+ */
+
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents an EXECUTE statement, which executes a
+ * statement that was prepared using PREPARE, with the specified values
+ * for its placeholders:
+ *
+ * <pre>EXECUTE name [USING value, value, ...];</pre>
+ *
+ * Each value is an integer, a real number, a quoted string, or NULL.
+ */
+public class ExecuteStatement extends SQLStatement {
+    private String name;
+    private Object[] vals;
+    
+    /**
+     * Constructs an ExecuteStatement object that will execute the
+     * prepared statement with the specified name.
+     *
+     * @param  name  the name of the prepared statement
+     * @param  vals  the values of the statement's placeholders
+     */
+    public ExecuteStatement(String name, Object[] vals) {
+        super();
+        this.name = name;
+        this.vals = vals;
+    }
+    
+    /*
+     * The prepared statement determines the access that is needed.
+     */
+    public boolean needsExclusiveAccess() {
+        PreparedSQL ps = Session.current().getPrepared(this.name);
+        return (ps != null && ps.getStatement().needsExclusiveAccess());
+    }
+    
+    public void execute() throws DatabaseException, DeadlockException {
+        PreparedSQL ps = Session.current().getPrepared(this.name);
+        try {
+            if (ps == null) {
+                throw new Exception(this.name + ": no such prepared statement");
+            }
+            ps.revalidate();
+            ps.bind(this.vals);
+        } catch (Exception e) {
+            this.reportError(e, "Could not execute statement " + this.name);
+            return;
+        }
+        
+        SQLStatement stmt = ps.getStatement();
+        stmt.setError(null);
+        stmt.execute();
+        this.setError(stmt.getError());
+        this.setUpdateCount(stmt.getUpdateCount());
+    }
+}
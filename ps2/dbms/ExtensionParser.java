@@ -0,0 +1,377 @@
+/*
+ * ExtensionParser.java
+ *
+ * DBMS Implementation
+ */
+
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ * A small hand-written parser for the commands that are not part of the
+ * SQL grammar recognized by the CUP-generated Parser class -- e.g.,
+ * <code>LOAD "file" INTO table</code>.  The DBMS gives each command
+ * string to this parser first, and only passes it on to the SQL parser
+ * if it isn't one of the extension commands.
+ *
+ * Like the SQL parser, this parser prints its own error messages and
+ * throws an InvalidSyntaxException if a command is malformed.
+ */
+public class ExtensionParser {
+    /* the statement that follows AS in a PREPARE command */
+    private static final Pattern PREPARE_BODY =
+      Pattern.compile("\\s*PREPARE\\s+\\S+\\s+AS\\s+(.*)",
+                      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private ArrayList<String> tokens;
+    private int pos;
+
+    /*
+     * Constructs a parser for the specified list of tokens.
+     */
+    private ExtensionParser(ArrayList<String> tokens) {
+        this.tokens = tokens;
+        this.pos = 0;
+    }
+
+    /**
+     * Parses the specified command string if it is an extension command.
+     *
+     * @param  commandString  the command entered by the user
+     * @return the SQLStatement for the command, or null if the command is
+     *         not an extension command (and should be handled by the
+     *         SQL parser)
+     * @throws InvalidSyntaxException if the command is an extension
+     *         command but is malformed
+     */
+    public static SQLStatement parse(String commandString) {
+        ArrayList<String> tokens = tokenize(commandString);
+        if (tokens == null || tokens.isEmpty()) {
+            return null;
+        }
+
+        ExtensionParser p = new ExtensionParser(tokens);
+        String first = tokens.get(0).toUpperCase();
+        String second = (tokens.size() > 1 ? tokens.get(1).toUpperCase() : "");
+        if (first.equals("LOAD")) {
+            return p.parseLoad();
+        } else if (first.equals("CREATE") && second.equals("INDEX")) {
+            return p.parseCreateIndex();
+        } else if (first.equals("DROP") && second.equals("INDEX")) {
+            return p.parseDropIndex();
+        } else if (first.equals("SHOW") && second.equals("STATS")) {
+            return p.parseShowStats();
+        } else if (first.equals("ANALYZE")) {
+            return p.parseAnalyze();
+        } else if (first.equals("PREPARE")) {
+            return p.parsePrepare(commandString);
+        } else if (first.equals("EXECUTE")) {
+            return p.parseExecute();
+        } else if (first.equals("DEALLOCATE")) {
+            return p.parseDeallocate();
+        }
+
+        return null;
+    }
+
+    /*
+     * load_stmt ::= LOAD STRING INTO table load_opts SEMICOLON
+     * load_opts ::= [BATCH INT_VAL] [PARALLEL INT_VAL] [MEMORY INT_VAL]
+     *               (in any order)
+     */
+    private SQLStatement parseLoad() {
+        this.expect("LOAD");
+        String fileName = this.expectString();
+        this.expect("INTO");
+        Table table = new Table(this.expectId());
+
+        int batchSize = LoadStatement.DEFAULT_BATCH_SIZE;
+        int parallelism = 1;
+        int sortMemory = LoadStatement.DEFAULT_SORT_MEMORY;
+        while (true) {
+            if (this.accept("BATCH")) {
+                batchSize = this.expectInt();
+            } else if (this.accept("PARALLEL")) {
+                parallelism = this.expectInt();
+            } else if (this.accept("MEMORY")) {
+                sortMemory = this.expectInt();
+            } else {
+                break;
+            }
+        }
+        this.expectEnd();
+
+        return new LoadStatement(table, fileName, batchSize, parallelism,
+                                 sortMemory);
+    }
+
+    /*
+     * create_index_stmt ::= CREATE INDEX ID ON table LPAREN ID RPAREN SEMICOLON
+     */
+    private SQLStatement parseCreateIndex() {
+        this.expect("CREATE");
+        this.expect("INDEX");
+        String indexName = this.expectId();
+        this.expect("ON");
+        Table table = new Table(this.expectId());
+        this.expect("(");
+        String colName = this.expectId();
+        this.expect(")");
+        this.expectEnd();
+
+        return new CreateIndexStatement(indexName, table, colName);
+    }
+
+    /*
+     * drop_index_stmt ::= DROP INDEX ID SEMICOLON
+     */
+    private SQLStatement parseDropIndex() {
+        this.expect("DROP");
+        this.expect("INDEX");
+        String indexName = this.expectId();
+        this.expectEnd();
+
+        return new DropIndexStatement(indexName);
+    }
+
+    /*
+     * show_stats_stmt ::= SHOW STATS SEMICOLON
+     */
+    private SQLStatement parseShowStats() {
+        this.expect("SHOW");
+        this.expect("STATS");
+        this.expectEnd();
+
+        return new StatsStatement();
+    }
+
+    /*
+     * analyze_stmt ::= ANALYZE table [SAMPLE INT_VAL] SEMICOLON
+     */
+    private SQLStatement parseAnalyze() {
+        this.expect("ANALYZE");
+        Table table = new Table(this.expectId());
+        int sampleSize = AnalyzeStatement.DEFAULT_SAMPLE_SIZE;
+        if (this.accept("SAMPLE")) {
+            sampleSize = this.expectInt();
+        }
+        this.expectEnd();
+
+        return new AnalyzeStatement(table, sampleSize);
+    }
+
+    /*
+     * prepare_stmt ::= PREPARE ID AS statement
+     *
+     * The statement (which ends with its own semicolon) is given to
+     * PreparedSQL as it was entered, so that its quoted strings are
+     * preserved.
+     */
+    private SQLStatement parsePrepare(String commandString) {
+        this.expect("PREPARE");
+        String name = this.expectId();
+        this.expect("AS");
+        Matcher m = PREPARE_BODY.matcher(commandString);
+        if (!m.matches()) {
+            this.syntaxError("expected a statement after AS");
+        }
+
+        PreparedSQL ps = PreparedSQL.parse(m.group(1));
+        SQLStatement stmt = ps.getStatement();
+        if (stmt instanceof PrepareStatement ||
+            stmt instanceof ExecuteStatement ||
+            stmt instanceof DeallocateStatement) {
+            this.syntaxError("cannot prepare a PREPARE, EXECUTE, or " +
+                             "DEALLOCATE command");
+        }
+        return new PrepareStatement(name, ps);
+    }
+
+    /*
+     * execute_stmt ::= EXECUTE ID [USING value {COMMA value}] SEMICOLON
+     * value ::= INT_VAL | REAL_VAL | STRING | NULL
+     */
+    private SQLStatement parseExecute() {
+        this.expect("EXECUTE");
+        String name = this.expectId();
+        ArrayList<Object> vals = new ArrayList<Object>();
+        if (this.accept("USING")) {
+            do {
+                vals.add(this.expectValue());
+            } while (this.accept(","));
+        }
+        this.expectEnd();
+
+        return new ExecuteStatement(name, vals.toArray());
+    }
+
+    /*
+     * deallocate_stmt ::= DEALLOCATE [PREPARE] ID SEMICOLON
+     */
+    private SQLStatement parseDeallocate() {
+        this.expect("DEALLOCATE");
+        this.accept("PREPARE");
+        String name = this.expectId();
+        this.expectEnd();
+
+        return new DeallocateStatement(name);
+    }
+
+    /*
+     * Consumes the next token if it is the specified keyword
+     * (ignoring case), returning true if it was consumed.
+     */
+    private boolean accept(String keyword) {
+        if (this.pos < this.tokens.size() &&
+            this.tokens.get(this.pos).equalsIgnoreCase(keyword)) {
+            this.pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Consumes the next token, which must be the specified keyword.
+     */
+    private void expect(String keyword) {
+        if (!this.accept(keyword)) {
+            this.syntaxError("expected " + keyword);
+        }
+    }
+
+    /*
+     * Consumes and returns the next token, which must be an identifier.
+     */
+    private String expectId() {
+        String tok = this.next();
+        if (tok == null || !Character.isLetter(tok.charAt(0))) {
+            this.syntaxError("expected an identifier");
+        }
+        return tok;
+    }
+
+    /*
+     * Consumes and returns the next token, which must be a
+     * quoted string.  The quotes are removed.
+     */
+    private String expectString() {
+        String tok = this.next();
+        if (tok == null || !isQuoted(tok)) {
+            this.syntaxError("expected a quoted string");
+        }
+        return tok.substring(1, tok.length() - 1);
+    }
+
+    /*
+     * Consumes and returns the next token, which must be a
+     * positive integer.
+     */
+    private int expectInt() {
+        String tok = this.next();
+        try {
+            int val = Integer.parseInt(tok);
+            if (val > 0) {
+                return val;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the error below
+        }
+        this.syntaxError("expected a positive integer");
+        return -1;
+    }
+
+    /*
+     * Consumes the next token, which must be a value, and returns it
+     * as the SQL parser would: an Integer, a Double, a String (without
+     * its quotes), or null for NULL.
+     */
+    private Object expectValue() {
+        String tok = this.next();
+        if (tok != null) {
+            if (isQuoted(tok)) {
+                return tok.substring(1, tok.length() - 1);
+            } else if (tok.equalsIgnoreCase("NULL")) {
+                return null;
+            }
+            try {
+                if (tok.matches("-?[0-9]+")) {
+                    return Integer.valueOf(tok);
+                }
+                return Double.valueOf(tok);
+            } catch (NumberFormatException e) {
+                // fall through to the error below
+            }
+        }
+        this.syntaxError("expected a value");
+        return null;
+    }
+
+    /*
+     * Checks that the only remaining token is the semicolon that
+     * ends the command.
+     */
+    private void expectEnd() {
+        if (!this.accept(";") || this.pos != this.tokens.size()) {
+            this.syntaxError("expected ; at the end of the command");
+        }
+    }
+
+    /*
+     * Returns the next token (or null if there are none), and advances
+     * past it.
+     */
+    private String next() {
+        if (this.pos >= this.tokens.size()) {
+            return null;
+        }
+        return this.tokens.get(this.pos++);
+    }
+
+    private void syntaxError(String msg) {
+        System.err.println("Syntax error: " + msg + ".");
+        throw new InvalidSyntaxException("Syntax error: " + msg);
+    }
+
+    private static boolean isQuoted(String tok) {
+        char c = tok.charAt(0);
+        return (tok.length() >= 2 && (c == '"' || c == '\'') &&
+                tok.charAt(tok.length() - 1) == c);
+    }
+
+    /*
+     * Splits a command string into tokens: identifiers and numbers,
+     * quoted strings (which keep their quotes), and single punctuation
+     * characters.  Returns null if there is an unterminated string.
+     */
+    private static ArrayList<String> tokenize(String s) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"' || c == '\'') {
+                int end = s.indexOf(c, i + 1);
+                if (end < 0) {
+                    return null;
+                }
+                tokens.add(s.substring(i, end + 1));
+                i = end + 1;
+            } else if (Character.isLetterOrDigit(c) || c == '_' ||
+                       c == '-' || c == '.') {
+                int start = i;
+                while (i < s.length() &&
+                       (Character.isLetterOrDigit(s.charAt(i)) ||
+                        s.charAt(i) == '_' || s.charAt(i) == '-' ||
+                        s.charAt(i) == '.')) {
+                    i++;
+                }
+                tokens.add(s.substring(start, i));
+            } else {
+                tokens.add(String.valueOf(c));
+                i++;
+            }
+        }
+        return tokens;
+    }
+}
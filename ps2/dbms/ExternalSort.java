@@ -0,0 +1,265 @@
+/*
+ * ExternalSort.java
+ *
+ * DBMS Implementation
+ */
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A class that sorts marshalled rows (key/value pairs) by key, using
+ * at most a fixed amount of memory.  Records are added using add(), and
+ * when the records in memory exceed the memory budget they are sorted
+ * and written to a temporary file (a "sorted run").  Once all records
+ * have been added, next() returns them in key order, merging the sorted
+ * runs if there are any.
+ *
+ * Keys are compared as unsigned bytes, which is the order that Berkeley
+ * DB uses for keys by default.  This means that inserting the records
+ * in the order returned by next() inserts them in B-tree order.
+ */
+public class ExternalSort implements Closeable {
+    /** The approximate per-record overhead, in bytes, of a record in memory. */
+    private static final int RECORD_OVERHEAD = 64;
+
+    /** Orders records by their keys, comparing the keys as unsigned bytes. */
+    public static final Comparator<Record> KEY_ORDER = new Comparator<Record>() {
+        public int compare(Record r1, Record r2) {
+            return Arrays.compareUnsigned(r1.key, r2.key);
+        }
+    };
+
+    private long memoryBudget;
+    private ArrayList<Record> current;
+    private long currentBytes;
+    private ArrayList<File> runFiles;
+
+    /* used by next() once all records have been added */
+    private Record[] sorted;
+    private int sortedPos;
+    private PriorityQueue<RunReader> merge;
+
+    /**
+     * A marshalled row, together with the number of the line of the
+     * input that it came from (for error messages).
+     */
+    public static class Record {
+        private byte[] key;
+        private byte[] value;
+        private long lineNum;
+
+        public Record(byte[] key, byte[] value, long lineNum) {
+            this.key = key;
+            this.value = value;
+            this.lineNum = lineNum;
+        }
+
+        public byte[] getKey() {
+            return this.key;
+        }
+
+        public byte[] getValue() {
+            return this.value;
+        }
+
+        public long getLineNum() {
+            return this.lineNum;
+        }
+
+        private long size() {
+            return this.key.length + this.value.length + RECORD_OVERHEAD;
+        }
+    }
+
+    /**
+     * Constructs an ExternalSort object that keeps at most approximately
+     * memoryBudget bytes of records in memory.
+     *
+     * @param  memoryBudget  the memory budget in bytes
+     */
+    public ExternalSort(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        this.current = new ArrayList<Record>();
+        this.currentBytes = 0;
+        this.runFiles = new ArrayList<File>();
+    }
+
+    /**
+     * Adds a record to be sorted.  This may write a sorted run to disk.
+     *
+     * @param  r  the record
+     * @throws IllegalStateException if next() has already been called
+     * @throws IOException if a sorted run cannot be written
+     */
+    public void add(Record r) throws IOException {
+        if (this.current == null) {
+            throw new IllegalStateException("cannot add records after " +
+              "the sorted records have begun to be read");
+        }
+        this.current.add(r);
+        this.currentBytes += r.size();
+        if (this.currentBytes > this.memoryBudget) {
+            this.spill();
+        }
+    }
+
+    /**
+     * Returns the number of sorted runs that have been written to disk.
+     *
+     * @return  the number of runs
+     */
+    public int numRuns() {
+        return this.runFiles.size();
+    }
+
+    /**
+     * Returns the next record in key order, or null if there are no more
+     * records.  The first call to this method ends the adding of records.
+     *
+     * @return  the next record
+     * @throws IOException if a sorted run cannot be read
+     */
+    public Record next() throws IOException {
+        if (this.current != null) {
+            this.finishAdding();
+        }
+
+        if (this.merge == null) {
+            if (this.sortedPos >= this.sorted.length) {
+                return null;
+            }
+            return this.sorted[this.sortedPos++];
+        }
+
+        RunReader run = this.merge.poll();
+        if (run == null) {
+            return null;
+        }
+        Record r = run.current;
+        if (run.advance()) {
+            this.merge.add(run);
+        } else {
+            run.close();
+        }
+        return r;
+    }
+
+    /**
+     * Closes any open runs and deletes the temporary files.
+     */
+    public void close() {
+        if (this.merge != null) {
+            for (RunReader run : this.merge) {
+                run.close();
+            }
+            this.merge = null;
+        }
+        for (File f : this.runFiles) {
+            f.delete();
+        }
+        this.runFiles.clear();
+    }
+
+    /*
+     * Sorts the records in memory, using all available cores.
+     */
+    private Record[] sortCurrent() {
+        Record[] records = this.current.toArray(new Record[0]);
+        Arrays.parallelSort(records, KEY_ORDER);
+        return records;
+    }
+
+    /*
+     * Sorts the records in memory and writes them to a new run file.
+     */
+    private void spill() throws IOException {
+        Record[] records = this.sortCurrent();
+        File f = File.createTempFile("dbms-sort", ".run");
+        f.deleteOnExit();
+        this.runFiles.add(f);
+
+        try (DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(new FileOutputStream(f)))) {
+            for (Record r : records) {
+                out.writeLong(r.lineNum);
+                out.writeInt(r.key.length);
+                out.write(r.key);
+                out.writeInt(r.value.length);
+                out.write(r.value);
+            }
+        }
+
+        this.current.clear();
+        this.currentBytes = 0;
+    }
+
+    /*
+     * Prepares for the records to be read in sorted order -- sorting
+     * them in memory if they all fit, and otherwise writing the
+     * remaining records to a final run and starting a merge of the runs.
+     */
+    private void finishAdding() throws IOException {
+        if (this.runFiles.isEmpty()) {
+            this.sorted = this.sortCurrent();
+            this.sortedPos = 0;
+        } else {
+            if (!this.current.isEmpty()) {
+                this.spill();
+            }
+            this.merge = new PriorityQueue<RunReader>(this.runFiles.size(),
+              new Comparator<RunReader>() {
+                  public int compare(RunReader r1, RunReader r2) {
+                      return KEY_ORDER.compare(r1.current, r2.current);
+                  }
+              });
+            for (File f : this.runFiles) {
+                RunReader run = new RunReader(f);
+                if (run.advance()) {
+                    this.merge.add(run);
+                } else {
+                    run.close();
+                }
+            }
+        }
+        this.current = null;
+    }
+
+    /*
+     * Reads the records in a run file, one at a time.
+     */
+    private static class RunReader {
+        private DataInputStream in;
+        private Record current;
+
+        RunReader(File f) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(
+                                            new FileInputStream(f)));
+        }
+
+        /* Reads the next record into current, returning false at the end. */
+        boolean advance() throws IOException {
+            long lineNum;
+            try {
+                lineNum = this.in.readLong();
+            } catch (EOFException e) {
+                this.current = null;
+                return false;
+            }
+            byte[] key = new byte[this.in.readInt()];
+            this.in.readFully(key);
+            byte[] value = new byte[this.in.readInt()];
+            this.in.readFully(value);
+            this.current = new Record(key, value, lineNum);
+            return true;
+        }
+
+        void close() {
+            try {
+                this.in.close();
+            } catch (IOException e) {
+                // nothing more we can do
+            }
+        }
+    }
+}
@@ -0,0 +1,502 @@
+/*
+ * HashJoinIterator.java
+ *
+ * DBMS Implementation
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import com.sleepycat.je.*;
+
+/**
+ * A class that serves as an iterator over the join of two relations,
+ * which uses a hash table to find the pairs of rows whose join keys are
+ * equal.
+ *
+ * The rows of one input (the build input, which should be the smaller
+ * one) are saved as bytes (see RelationIterator.saveRow()) in a hash
+ * table, keyed by the values of their key columns.  The other input
+ * (the probe input) is then read one row at a time, and each of its
+ * rows is combined with each of the build rows that have the same key,
+ * by restoring the build row (see RelationIterator.restoreRow()).  The
+ * join's condition -- the parts of the WHERE clause that can be
+ * evaluated once both inputs are available, including the equalities
+ * of the keys -- is evaluated on every combined row, so the hash table
+ * only needs to bring together the rows that could match.  Rows with a
+ * NULL key are skipped, since a comparison with NULL is never true.  A
+ * join without key columns is a cross product, in which every build row
+ * has the same key.
+ *
+ * If the saved build rows exceed the memory budget, the join becomes a
+ * partitioned (Grace) hash join: the rows in the hash table, the rest of
+ * the build input, and then the whole probe input are written to
+ * NUM_PARTITIONS temporary files of each input by the hash of their
+ * keys.  Rows with equal keys are always in partitions with the same
+ * number, so each pair of partitions is then joined by itself.  A build
+ * partition that still doesn't fit -- e.g., because one key is very
+ * common -- is loaded into the hash table one chunk at a time, and the
+ * probe partition is read once for each chunk.
+ */
+public class HashJoinIterator extends RelationIterator {
+    /** The default memory budget of a join, in MB. */
+    public static final int DEFAULT_MEMORY = 64;
+
+    /** The number of partitions of each input when the build rows don't fit. */
+    public static final int NUM_PARTITIONS = 32;
+
+    private static final int PARTITION_BITS = 5;  // log2(NUM_PARTITIONS)
+
+    /** The approximate per-row overhead, in bytes, of a row in the hash table. */
+    private static final int ROW_OVERHEAD = 64;
+
+    /* the key of every row of a join without key columns */
+    private static final Object NO_KEY = Collections.emptyList();
+
+    private RelationIterator build;
+    private RelationIterator probe;
+    private Column[] buildKeys;
+    private Column[] probeKeys;
+    private BooleanSupplier condition;
+    private long memoryBudget;
+    private TableIterator[] tableIters;
+    private int numTuples;
+
+    /* the columns that the iterator produces */
+    private TableIterator[] outIters;
+    private int[] outCols;
+
+    /* the hash table, which maps each key to a chain of saved rows */
+    private HashMap<Object, Entry> table;
+    private long tableBytes;
+    private Entry match;        // the next build row for the probe row
+    private RowOutput rowOut;
+
+    /* used only if the inputs have been partitioned */
+    private File[] buildFiles;
+    private File[] probeFiles;
+    private int partition;          // the partition being joined
+    private DataInputStream buildIn;    // the rows of it not yet loaded
+    private DataInputStream probeIn;
+
+    /*
+     * A saved build row, and the next saved row with the same key.
+     */
+    private static class Entry {
+        final byte[] row;
+        Entry next;
+
+        Entry(byte[] row) {
+            this.row = row;
+        }
+    }
+
+    /**
+     * Constructs a HashJoinIterator object for the join of the
+     * specified relations.  The key columns of each input are compared
+     * in order, so the i-th key column of the build input is compared
+     * with the i-th key column of the probe input.
+     *
+     * @param  build  the input whose rows are kept in the hash table
+     * @param  probe  the other input
+     * @param  buildKeys  the key columns of the build input
+     * @param  probeKeys  the key columns of the probe input
+     * @param  condition  the condition that the combined rows must
+     *         satisfy (or null if there is none), whose columns must all
+     *         be columns of the two inputs
+     * @param  memoryBudget  the approximate number of bytes of build rows
+     *         that are kept in memory
+     */
+    public HashJoinIterator(RelationIterator build, RelationIterator probe,
+                            Column[] buildKeys, Column[] probeKeys,
+                            ConditionalExpression condition,
+                            long memoryBudget)
+    {
+        if (buildKeys.length != probeKeys.length) {
+            throw new IllegalArgumentException("the inputs must have the " +
+                                               "same number of key columns");
+        }
+        this.build = build;
+        this.probe = probe;
+        this.buildKeys = buildKeys;
+        this.probeKeys = probeKeys;
+        this.memoryBudget = memoryBudget;
+        if (condition == null) {
+            condition = new TrueExpression();
+        }
+        this.condition = condition.compile();
+
+        TableIterator[] probeIters = probe.getTableIterators();
+        TableIterator[] buildIters = build.getTableIterators();
+        this.tableIters = Arrays.copyOf(probeIters,
+                                        probeIters.length + buildIters.length);
+        System.arraycopy(buildIters, 0, this.tableIters, probeIters.length,
+                         buildIters.length);
+
+        /* By default, all of the columns of all of the tables. */
+        ArrayList<TableIterator> iters = new ArrayList<TableIterator>();
+        ArrayList<Integer> cols = new ArrayList<Integer>();
+        for (TableIterator iter : this.tableIters) {
+            for (int i = 0; i < iter.numColumns(); i++) {
+                iters.add(iter);
+                cols.add(i);
+            }
+        }
+        this.project(iters.toArray(new TableIterator[0]),
+                     cols.stream().mapToInt(Integer::intValue).toArray());
+
+        this.rowOut = new RowOutput();
+    }
+
+    /**
+     * Limits the columns that the iterator produces to the specified
+     * columns, in the specified order.  The iterator must not have been
+     * advanced yet.
+     *
+     * @param  iters  the iterator of the table of each column, which
+     *         must be one of the iterators of the join's inputs
+     * @param  cols  the index of each column in its table
+     */
+    public void project(TableIterator[] iters, int[] cols) {
+        this.outIters = iters.clone();
+        this.outCols = cols.clone();
+    }
+
+    public TableIterator[] getTableIterators() {
+        return this.tableIters;
+    }
+
+    public int numTuples() {
+        return this.numTuples;
+    }
+
+    public int numOutputColumns() {
+        return this.outCols.length;
+    }
+
+    public Column getOutputColumn(int i) {
+        return this.outIters[i].getTable().getColumn(this.outCols[i]);
+    }
+
+    public Object getOutputVal(int i) {
+        return this.outIters[i].getColumnVal(this.outCols[i]);
+    }
+
+    /**
+     * Advances the iterator to the next row of the join.  The first call
+     * reads the build input (and, if it doesn't fit in memory,
+     * partitions both inputs).
+     *
+     * @return true if the iterator was advanced to a new row, and false
+     *         if there are no more rows to visit
+     * @throws DeadlockException if deadlock occurs while accessing the
+     *         underlying BDB database(s)
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         while accessing the underlying database(s)
+     * @throws UncheckedIOException if a temporary file can't be written
+     *         or read
+     */
+    public boolean next() throws DeadlockException, DatabaseException {
+        try {
+            if (this.table == null) {
+                this.buildTable();
+            }
+
+            while (true) {
+                /* Combine the probe row with its remaining matches. */
+                while (this.match != null) {
+                    Entry entry = this.match;
+                    this.match = entry.next;
+                    this.build.restoreRow(entry.row, 0);
+                    if (this.condition.getAsBoolean()) {
+                        this.numTuples++;
+                        return true;
+                    }
+                }
+
+                if (!this.nextProbeRow()) {
+                    return false;
+                }
+                Object key = key(this.probeKeys);
+                this.match = (key == null ? null : this.table.get(key));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void close() throws DatabaseException {
+        closeQuietly(this.buildIn);
+        closeQuietly(this.probeIn);
+        this.buildIn = this.probeIn = null;
+        for (File[] files : new File[][] { this.buildFiles, this.probeFiles }) {
+            for (int i = 0; files != null && i < files.length; i++) {
+                if (files[i] != null) {
+                    files[i].delete();
+                }
+            }
+        }
+        this.table = null;
+        this.match = null;
+
+        try {
+            this.probe.close();
+        } finally {
+            this.build.close();
+        }
+    }
+
+    public String toString() {
+        return "hash join [probe: " + this.probe + "; build: " + this.build +
+               "]";
+    }
+
+    /*
+     * Reads the build input into the hash table, partitioning both
+     * inputs if the build rows don't fit.
+     */
+    private void buildTable() throws DatabaseException, IOException {
+        this.table = new HashMap<Object, Entry>();
+        DataOutputStream[] outs = null;
+        try {
+            while (this.build.next()) {
+                Object key = key(this.buildKeys);
+                if (key == null) {
+                    continue;
+                }
+                byte[] row = this.save(this.build);
+                if (outs != null) {
+                    writeRow(outs, key, row);
+                    continue;
+                }
+
+                this.insert(key, row);
+                if (this.tableBytes > this.memoryBudget) {
+                    this.buildFiles = createFiles();
+                    this.probeFiles = createFiles();
+                    outs = openFiles(this.buildFiles);
+                    for (Map.Entry<Object, Entry> e : this.table.entrySet()) {
+                        for (Entry entry = e.getValue(); entry != null;
+                             entry = entry.next) {
+                            writeRow(outs, e.getKey(), entry.row);
+                        }
+                    }
+                    this.table.clear();
+                    this.tableBytes = 0;
+                }
+            }
+        } finally {
+            closeAll(outs);
+        }
+        if (this.buildFiles == null) {
+            return;
+        }
+
+        outs = openFiles(this.probeFiles);
+        try {
+            while (this.probe.next()) {
+                Object key = key(this.probeKeys);
+                if (key != null) {
+                    writeRow(outs, key, this.save(this.probe));
+                }
+            }
+        } finally {
+            closeAll(outs);
+        }
+        this.partition = -1;
+    }
+
+    /*
+     * Positions the probe input on its next row, returning false if
+     * there are no more.  If the inputs have been partitioned, the rows
+     * are read from the probe partitions, and the hash table is loaded
+     * with the matching build rows as needed.
+     */
+    private boolean nextProbeRow() throws DatabaseException, IOException {
+        if (this.buildFiles == null) {
+            return this.probe.next();
+        }
+
+        while (true) {
+            if (this.probeIn != null) {
+                byte[] row = readRow(this.probeIn);
+                if (row != null) {
+                    this.probe.restoreRow(row, 0);
+                    return true;
+                }
+                this.probeIn.close();
+                this.probeIn = null;
+            }
+
+            /*
+             * Load the next chunk of the build partition -- or, if it
+             * has all been loaded, the first chunk of the next one --
+             * and read the probe partition again.
+             */
+            if (this.buildIn == null) {
+                if (this.partition >= 0) {
+                    this.buildFiles[this.partition].delete();
+                    this.probeFiles[this.partition].delete();
+                }
+                this.partition++;
+                if (this.partition >= NUM_PARTITIONS) {
+                    return false;
+                }
+                this.buildIn = openFile(this.buildFiles[this.partition]);
+            }
+            if (this.loadChunk()) {
+                this.probeIn = openFile(this.probeFiles[this.partition]);
+            }
+        }
+    }
+
+    /*
+     * Loads the hash table with build rows from the current partition
+     * until they exceed the memory budget or the partition ends, and
+     * returns true if any rows were loaded.
+     */
+    private boolean loadChunk() throws IOException {
+        this.table.clear();
+        this.tableBytes = 0;
+        while (this.tableBytes <= this.memoryBudget) {
+            byte[] row = readRow(this.buildIn);
+            if (row == null) {
+                this.buildIn.close();
+                this.buildIn = null;
+                break;
+            }
+            this.build.restoreRow(row, 0);
+            this.insert(key(this.buildKeys), row);
+        }
+        return !this.table.isEmpty();
+    }
+
+    private void insert(Object key, byte[] row) {
+        Entry entry = new Entry(row);
+        entry.next = this.table.put(key, entry);
+        this.tableBytes += row.length + ROW_OVERHEAD;
+    }
+
+    /*
+     * Saves the row on which the specified input is positioned.
+     */
+    private byte[] save(RelationIterator input) throws IOException {
+        this.rowOut.reset();
+        input.saveRow(this.rowOut);
+        return this.rowOut.getBufferBytes();
+    }
+
+    /*
+     * Returns the key of the current row from the values of the
+     * specified key columns, or null if one of them is NULL.  Numbers
+     * are converted to Doubles, so that an INTEGER key can match an
+     * equal REAL one.  Doubles are equal if Double.compare() says so
+     * (e.g., -0.0 and 0.0 are not), as in the join's condition.
+     */
+    private static Object key(Column[] keys) {
+        if (keys.length == 0) {
+            return NO_KEY;
+        }
+        Object[] vals = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            Object val = keys[i].getValue();
+            if (val == null) {
+                return null;
+            } else if (val instanceof Number) {
+                val = ((Number)val).doubleValue();
+            }
+            vals[i] = val;
+        }
+        return (vals.length == 1 ? vals[0] : Arrays.asList(vals));
+    }
+
+    /*
+     * Writes a row to the partition for its key.  The partition is
+     * chosen by the high bits of the scrambled hash code, which the
+     * hash table (which uses the low bits) doesn't depend on.
+     */
+    private static void writeRow(DataOutputStream[] outs, Object key,
+                                 byte[] row) throws IOException
+    {
+        int hash = key.hashCode() * 0x9E3779B9;
+        DataOutputStream out = outs[hash >>> (32 - PARTITION_BITS)];
+        out.writeInt(row.length);
+        out.write(row);
+    }
+
+    /*
+     * Reads a row written by writeRow(), or returns null at the end of
+     * the file.
+     */
+    private static byte[] readRow(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] row = new byte[length];
+        in.readFully(row);
+        return row;
+    }
+
+    private static File[] createFiles() throws IOException {
+        File[] files = new File[NUM_PARTITIONS];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = File.createTempFile("dbms-join", ".part");
+            files[i].deleteOnExit();
+        }
+        return files;
+    }
+
+    private static DataOutputStream[] openFiles(File[] files)
+        throws IOException
+    {
+        DataOutputStream[] outs = new DataOutputStream[files.length];
+        try {
+            for (int i = 0; i < files.length; i++) {
+                outs[i] = new DataOutputStream(new BufferedOutputStream(
+                                                 new FileOutputStream(files[i])));
+            }
+        } catch (IOException e) {
+            closeAll(outs);
+            throw e;
+        }
+        return outs;
+    }
+
+    private static DataInputStream openFile(File f) throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                                     new FileInputStream(f)));
+    }
+
+    /*
+     * Closes the specified streams, which flushes them.  Any that are
+     * null are skipped.
+     */
+    private static void closeAll(DataOutputStream[] outs) throws IOException {
+        IOException failure = null;
+        for (int i = 0; outs != null && i < outs.length; i++) {
+            try {
+                if (outs[i] != null) {
+                    outs[i].close();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            if (c != null) {
+                c.close();
+            }
+        } catch (IOException e) {
+            // nothing more we can do
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * HyperLogLog.java
+ *
+ * DBMS Implementation
+ */
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values
+ * in a column (see ColumnStats) in a fixed amount of memory, no matter
+ * how many values it is given.
+ *
+ * Each value is hashed to 64 bits.  The first PRECISION bits choose one
+ * of the sketch's 2^PRECISION registers, and the register keeps the
+ * largest number of leading zeros (plus one) seen in the rest of the
+ * hashes that it was chosen for.  A long run of zeros is evidence of
+ * many distinct hashes, and the harmonic mean of the registers gives an
+ * estimate whose standard error is about 1.04 / sqrt(2^PRECISION) --
+ * 2.3% for the precision used here.  Small counts, for which many
+ * registers are still 0, are estimated by linear counting instead.
+ *
+ * Adding the same value again never changes the sketch, so duplicates
+ * cost nothing but the hashing.  The registers are stored in the
+ * catalog with the rest of a column's statistics (see Catalog.putStats()).
+ */
+public class HyperLogLog {
+    /** The number of bits of each hash that choose its register. */
+    public static final int PRECISION = 11;
+
+    /** The number of registers in a sketch. */
+    public static final int NUM_REGISTERS = 1 << PRECISION;
+
+    private byte[] registers;
+
+    /** Constructs an empty sketch. */
+    public HyperLogLog() {
+        this.registers = new byte[NUM_REGISTERS];
+    }
+
+    /**
+     * Constructs a sketch with the specified registers -- e.g., those
+     * of a sketch read from the catalog.
+     *
+     * @param  registers  the registers (which are not copied)
+     * @throws IllegalArgumentException if there are not NUM_REGISTERS
+     *         registers
+     */
+    public HyperLogLog(byte[] registers) {
+        if (registers.length != NUM_REGISTERS) {
+            throw new IllegalArgumentException("a sketch must have " +
+                                               NUM_REGISTERS + " registers");
+        }
+        this.registers = registers;
+    }
+
+    /**
+     * Adds a value to the sketch.
+     *
+     * @param  val  an Integer, Double, or String
+     */
+    public void add(Object val) {
+        long hash = hash(val);
+        int index = (int)(hash >>> (64 - PRECISION));
+        long rest = hash << PRECISION;
+        int rank = Math.min(Long.numberOfLeadingZeros(rest) + 1,
+                            64 - PRECISION + 1);
+        if (rank > this.registers[index]) {
+            this.registers[index] = (byte)rank;
+        }
+    }
+
+    /**
+     * Returns the estimated number of distinct values that have been
+     * added to the sketch.
+     */
+    public long estimate() {
+        double m = NUM_REGISTERS;
+        double sum = 0;
+        int zeros = 0;
+        for (byte reg : this.registers) {
+            sum += Math.scalb(1.0, -reg);
+            if (reg == 0) {
+                zeros++;
+            }
+        }
+
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log(m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Returns the registers of the sketch, without copying them.
+     */
+    public byte[] getRegisters() {
+        return this.registers;
+    }
+
+    /*
+     * Hashes a value to 64 bits.  Numbers are hashed by their values
+     * rather than their types, so that 2 and 2.0 have the same hash.
+     */
+    private static long hash(Object val) {
+        long h;
+        if (val instanceof String) {
+            /* FNV-1a, one byte per char, as strings are stored */
+            String s = (String)val;
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h = (h ^ (s.charAt(i) & 0xFF)) * 0x100000001b3L;
+            }
+        } else {
+            double d = ((Number)val).doubleValue();
+            h = Double.doubleToLongBits(d == 0 ? 0.0 : d);  // -0.0 == 0.0
+        }
+
+        /* the finalizer of MurmurHash3, which mixes every bit into all */
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
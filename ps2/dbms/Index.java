@@ -0,0 +1,202 @@
+/*
+ * Index.java
+ *
+ * DBMS Implementation
+ */
+
+import java.util.*;
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents a secondary index on one column of a table.
+ * Each index is stored in a BDB SecondaryDatabase that is associated
+ * with the table's database, so BDB keeps the index up to date whenever
+ * rows are inserted, updated, or deleted through the table's handle.
+ *
+ * The key of an index entry is the marshalled value of the indexed
+ * column, using the key format of the table (see KeyEncoding), and the
+ * entry refers to the primary key of the row.  Rows in which the 
+ * indexed column is null are not included in the index.
+ */
+public class Index {
+    private String name;
+    private String tableName;
+    private String colName;
+    private Column column;
+    private SecondaryDatabase db;
+
+    /**
+     * Constructs an Index object for the index with the specified name
+     * on the specified column of the specified table.
+     *
+     * @param  name  the name of the index
+     * @param  tableName  the name of the indexed table
+     * @param  colName  the name of the indexed column
+     */
+    public Index(String name, String tableName, String colName) {
+        this.name = name;
+        this.tableName = tableName;
+        this.colName = colName;
+    }
+
+    /**
+     * Opens the index's SecondaryDatabase and associates it with the
+     * database of the specified table, which must already be open.
+     * If create is true, the database is created and populated using
+     * the rows that are already in the table.
+     *
+     * @param  table  the indexed table
+     * @param  create  should the index's database be created?
+     * @throws IllegalArgumentException if the table has no column with
+     *         the name of the indexed column
+     * @throws DatabaseException if Berkeley DB encounters a problem
+     *         opening the index's database
+     */
+    public void open(Table table, boolean create) throws DatabaseException {
+        for (int i = 0; i < table.numColumns(); i++) {
+            if (table.getColumn(i).getName().equals(this.colName)) {
+                this.column = table.getColumn(i);
+            }
+        }
+        if (this.column == null) {
+            throw new IllegalArgumentException(this.tableName +
+              ": no column named " + this.colName);
+        }
+
+        SecondaryConfig config = new SecondaryConfig();
+        config.setTransactional(true);
+        config.setSortedDuplicates(true);
+        config.setAllowCreate(create);
+        config.setAllowPopulate(create);
+        config.setKeyCreator(new KeyCreator(this.column, table.numColumns(),
+                                             table.getKeyFormat()));
+        this.db = DBMS.getEnv().openSecondaryDatabase(null, this.dbName(),
+                                                      table.getDB(), config);
+    }
+
+    /**
+     * Closes the index's database handle, if it is open.
+     *
+     * @throws DatabaseException if Berkeley DB encounters a problem
+     *         closing the handle
+     */
+    public void close() throws DatabaseException {
+        if (this.db != null) {
+            this.db.close();
+        }
+        this.db = null;
+    }
+
+    /**
+     * Returns the name of the index's BDB database file.
+     *
+     * @return  the name of the database file
+     */
+    public String dbName() {
+        return this.name + ".idx.db";
+    }
+
+    /**
+     * Returns the name of the index.
+     *
+     * @return  the index's name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Returns the name of the indexed table.
+     *
+     * @return  the table's name
+     */
+    public String getTableName() {
+        return this.tableName;
+    }
+
+    /**
+     * Returns the name of the indexed column.
+     *
+     * @return  the column's name
+     */
+    public String getColName() {
+        return this.colName;
+    }
+
+    /**
+     * Returns the indexed column, or null if the index isn't open.
+     *
+     * @return  the column
+     */
+    public Column getColumn() {
+        return this.column;
+    }
+
+    /**
+     * Returns the handle for the index's database, or null if the index
+     * isn't open.
+     *
+     * @return  the database handle
+     */
+    public SecondaryDatabase getDB() {
+        return this.db;
+    }
+
+    public String toString() {
+        return this.name + " on " + this.tableName + "(" + this.colName + ")";
+    }
+
+    /*
+     * Creates the key of the index entry for a row by extracting the
+     * bytes of the indexed column from the marshalled row and converting
+     * them to the table's key format.
+     */
+    private static class KeyCreator implements SecondaryKeyCreator {
+        private int colIndex;
+        private int colType;
+        private int numColumns;
+        private int keyFormat;
+
+        KeyCreator(Column col, int numColumns, int keyFormat) {
+            this.colIndex = col.getIndex();
+            this.colType = col.getType();
+            this.numColumns = numColumns;
+            this.keyFormat = keyFormat;
+        }
+
+        public boolean createSecondaryKey(SecondaryDatabase secondary,
+          DatabaseEntry key, DatabaseEntry data, DatabaseEntry result)
+        {
+            RowInput valueIn = new RowInput(data.getData(), data.getOffset(),
+                                            data.getSize());
+            int offset = valueIn.readShortAtOffset(2 * this.colIndex);
+            if (offset == InsertRow.IS_NULL) {
+                return false;
+            }
+            if (offset == InsertRow.IS_PKEY) {
+                result.setData(Arrays.copyOfRange(key.getData(), 
+                  key.getOffset(), key.getOffset() + key.getSize()));
+                return true;
+            }
+
+            int end;
+            switch (this.colType) {
+                case Column.INTEGER:
+                    end = offset + 4;
+                    break;
+                case Column.REAL:
+                    end = offset + 8;
+                    break;
+                default:
+                    end = InsertRow.endOffset(valueIn, this.colIndex,
+                                              this.numColumns);
+            }
+            int start = data.getOffset() + offset;
+            byte[] bytes = Arrays.copyOfRange(data.getData(), start,
+                                              start + end - offset);
+            KeyEncoding.valueToKey(bytes, 0, this.colType, this.keyFormat);
+            result.setData(bytes);
+            return true;
+        }
+    }
+}
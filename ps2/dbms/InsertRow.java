@@ -6,6 +6,7 @@
 
 import java.io.*;
 import java.util.Arrays;
+import com.sleepycat.je.*;
 
 /**
  * A class that represents a row that will be inserted in a table in a
@@ -13,6 +14,12 @@ import java.util.Arrays;
  *
  * This class contains the code used to marshall the values of the
  * individual columns to a single key-value pair.
+ *
+ * An InsertRow can be reused for any number of rows in the same table
+ * by calling setValues() before each call to marshall().  The key and
+ * value buffers are reset and reused rather than reallocated, which
+ * matters when loading a large number of rows.  An InsertRow should
+ * only be used by one thread at a time.
  */
 public class InsertRow {
 	private Table table;           // the table in which the row will be inserted
@@ -36,14 +43,37 @@ public class InsertRow {
 	 * @param  values  the column values for the row to be inserted
 	 */
 	public InsertRow(Table table, Object[] values) {
+		this(table);
+		this.setValues(values);
+	}
+    
+	/**
+	 * Constructs an InsertRow object that can be used to marshall rows
+	 * that are to be inserted in the specified table.  The values for
+	 * each row must be specified using setValues() before the row is
+	 * marshalled.
+	 *
+	 * @param  t  the table
+	 */
+	public InsertRow(Table table) {
 		this.table = table;
-		this.columnVals = values;
 		this.keyBuffer = new RowOutput();
 		this.valueBuffer = new RowOutput();
+	}
+    
+	/**
+	 * Specifies the column values of the next row to be marshalled.
+	 *
+	 * @param  values  the column values for the row to be inserted
+	 */
+	public void setValues(Object[] values) {
+		this.columnVals = values;
         
 		// Note that we need one more offset than value,
 		// so that we can store the offset of the end of the record.
-		this.offsets = new int[values.length + 1];
+		if (this.offsets == null || this.offsets.length != values.length + 1) {
+			this.offsets = new int[values.length + 1];
+		}
 	}
     
 	/**
@@ -64,22 +94,15 @@ public class InsertRow {
 		 * to do some of the work (e.g., to fill in the offsets array
 		 * with the appropriate offsets).
 		 */
+		this.keyBuffer.reset();
+		this.valueBuffer.reset();
+
 		Column PriCol=this.table.primaryKeyColumn();
-		int primInd=PriCol.getIndex();
+		int primInd=(PriCol == null ? -1 : PriCol.getIndex());
 
 		if(PriCol != null) {
-			int Type=PriCol.getType();
-			switch (Type){
-			case 0:
-				this.keyBuffer.writeInt((int)this.columnVals[primInd]);
-				break;
-			case 1:
-				this.keyBuffer.writeDouble((double)this.columnVals[primInd]);
-				break;
-			default:
-				this.keyBuffer.writeBytes((String)this.columnVals[primInd]);
-				break;
-			}
+			KeyEncoding.writeKey(this.keyBuffer, PriCol.getType(),
+			                     this.columnVals[primInd], this.table.getKeyFormat());
 		}
 
 		int i;
@@ -130,6 +153,47 @@ public class InsertRow {
 		}		    
 	}
         
+	/**
+	 * Returns the offset of the end of the value of the column with the
+	 * specified index in a marshalled row value -- i.e., the next offset
+	 * in the header that isn't one of the special offsets for null or
+	 * primary-key columns.  The header always includes the offset of the
+	 * end of the record, so there is always such an offset.
+	 *
+	 * @param  valueIn  a RowInput for the value portion of the row
+	 * @param  colIndex  the index of the column
+	 * @param  numColumns  the number of columns in the row's table
+	 * @return  the offset of the end of the column's value
+	 * @throws IllegalStateException if the header is invalid
+	 */
+	public static int endOffset(RowInput valueIn, int colIndex, 
+				    int numColumns) {
+		for (int i = colIndex + 1; i <= numColumns; i++) {
+			int offset = valueIn.readShortAtOffset(2 * i);
+			if (offset >= 0) {
+				return offset;
+			}
+		}
+		throw new IllegalStateException("invalid header in marshalled row");
+	}
+    
+	/**
+	 * Points the specified DatabaseEntry objects at the key and value
+	 * of the marshalled row.  The entries share the backing arrays of 
+	 * the key and value buffers rather than copying them, so they must
+	 * be used (e.g., passed to Database.put()) before this InsertRow is 
+	 * used to marshall another row.
+	 *
+	 * @param  key  the entry for the key
+	 * @param  value  the entry for the value
+	 */
+	public void setEntries(DatabaseEntry key, DatabaseEntry value) {
+		key.setData(this.keyBuffer.getBackingBytes(), 0,
+			    this.keyBuffer.getBufferLength());
+		value.setData(this.valueBuffer.getBackingBytes(), 0,
+			      this.valueBuffer.getBufferLength());
+	}
+        
 	/**
 	 * Returns the RowOutput used for the key portion of the marshalled row.
 	 *
@@ -27,7 +27,16 @@ public class InsertStatement extends SQLStatement {
         super(t, colList, valList);
     }
     
+    /*
+     * Everything that an execution computes is kept outside the
+     * statement, so a parsed statement can be executed again.
+     */
+    public boolean isReusable() {
+        return true;
+    }
+    
     public void execute() throws DatabaseException, DeadlockException {
+        this.setUpdateCount(0);
         try {
             Table table = this.getTable(0);
             if (table.open() != OperationStatus.SUCCESS) {
@@ -64,32 +73,22 @@ public class InsertStatement extends SQLStatement {
              * PS 2: Add code below to perform the actual insertion, 
              * and to print the appropriate message after it has occurred.
              */
-	    RowOutput keybuffer = row.getKeyBuffer();
-	    RowOutput valueBuffer = row.getValueBuffer();
-
-	    byte[] bytes = keybuffer.getBufferBytes();
-	    int numBytes = keybuffer.getBufferLength();
-	    DatabaseEntry key = new DatabaseEntry(bytes, 0, numBytes);
-
-	    bytes = valueBuffer.getBufferBytes();
-	    numBytes = valueBuffer.getBufferLength();
-	    DatabaseEntry value = new DatabaseEntry(bytes, 0, numBytes);
+	    DatabaseEntry key = new DatabaseEntry();
+	    DatabaseEntry value = new DatabaseEntry();
+	    row.setEntries(key, value);
 
 	    Database db = table.getDB();
-	    OperationStatus ret = db.putNoOverwrite(null, key, value);
+	    OperationStatus ret = db.putNoOverwrite(DBMS.getTxn(), key, value);
 
 	    if (ret == OperationStatus.KEYEXIST) {
 		    throw new Exception("There is an existing row with the specified primary key");
 	    } else if (ret == OperationStatus.SUCCESS) {
+            this.setUpdateCount(1);
             System.out.println("Added 1 row to " + table.getName() + ".");
         }
             
         } catch (Exception e) {
-            String errMsg = e.getMessage();
-            if (errMsg != null) {
-                System.err.println(errMsg + ".");
-            }
-            System.err.println("Could not insert row.");
+            this.reportError(e, "Could not insert row");
         }
     }
 }
\ No newline at end of file
@@ -8,7 +8,16 @@
  * A special exception class that allows us to distinguish parser
  * syntax errors from other exceptions.  Since the parser prints its
  * own error messages, when the DBMS catches this type of exception,
- * it does nothing.
+ * it does nothing.  The exception's message is the error message
+ * that the parser printed, for callers that don't see its output
+ * (see Session.execute()).
  */
 public class InvalidSyntaxException extends RuntimeException {
+    public InvalidSyntaxException() {
+        super();
+    }
+    
+    public InvalidSyntaxException(String message) {
+        super(message);
+    }
 }
@@ -0,0 +1,346 @@
+/*
+ * JoinPlanner.java
+ *
+ * DBMS Implementation
+ */
+
+import java.util.*;
+
+/**
+ * A class that plans the join of the tables in the FROM clause of a
+ * SELECT statement, and opens the iterator that carries it out.
+ *
+ * Each column in the statement must belong to exactly one of the tables
+ * -- i.e., it must be qualified by a table name or range variable if
+ * more than one of them has a column with its name.  The WHERE clause
+ * is split into the terms that are ANDed together, and the terms that
+ * involve only one table are evaluated by that table's TableIterator,
+ * which can also use them to choose an index (see AccessPath).  The
+ * other terms are evaluated by the joins, as soon as all of their
+ * tables have been joined.
+ *
+ * The tables are joined one at a time by HashJoinIterators, in an order
+ * chosen greedily: the plan starts with the table with the fewest
+ * expected rows, and then joins the table with the fewest expected rows
+ * among those that are connected to the tables joined so far by a term
+ * of the WHERE clause, so that a cross product is only used when no
+ * such table remains.  The equalities between a column of the joined
+ * tables and a column of the new table are the keys of the join, and
+ * the input with fewer expected rows is its build input.  The number of
+ * rows in a table is taken from its statistics (see AnalyzeStatement)
+ * or assumed to be UNKNOWN_ROWS, and is multiplied by the selectivity
+ * of its terms.
+ */
+public class JoinPlanner {
+    /** The number of rows assumed for a table that hasn't been analyzed. */
+    public static final long UNKNOWN_ROWS = 1000;
+
+    private SelectStatement stmt;
+    private TableIterator[] iters;
+    private double[] estimates;     // the expected rows from each iterator
+
+    /* the terms of the WHERE clause, and the tables that each one uses */
+    private ArrayList<ConditionalExpression> terms;
+    private ArrayList<Long> termTables;
+    private boolean[] applied;
+
+    /*
+     * Constructs a JoinPlanner object for the specified statement.
+     */
+    private JoinPlanner(SelectStatement stmt) {
+        this.stmt = stmt;
+        this.iters = new TableIterator[stmt.numTables()];
+        this.estimates = new double[stmt.numTables()];
+        this.terms = new ArrayList<ConditionalExpression>();
+        this.termTables = new ArrayList<Long>();
+    }
+
+    /**
+     * Opens an iterator over the join of the tables in the FROM clause
+     * of the specified statement, which produces the columns in the
+     * specified select list.  The tables must already have been opened.
+     *
+     * @param  stmt  the statement, which must have more than one table
+     * @param  selectList  the columns (and STARs) from the SELECT clause
+     * @return  the iterator, which the caller must close
+     * @throws Exception if the statement can't be executed (in which
+     *         case the exception's message describes why)
+     */
+    public static RelationIterator open(SelectStatement stmt,
+                                        ArrayList<Object> selectList)
+        throws Exception
+    {
+        return new JoinPlanner(stmt).plan(selectList);
+    }
+
+    private RelationIterator plan(ArrayList<Object> selectList)
+        throws Exception
+    {
+        int numTables = this.stmt.numTables();
+        if (numTables > Long.SIZE) {
+            throw new Exception("A SELECT statement may join at most " +
+                                Long.SIZE + " tables");
+        }
+
+        /* Resolve the columns before opening anything. */
+        for (int i = 0; i < this.stmt.numWhereColumns(); i++) {
+            this.tableOf(this.stmt.getWhereColumn(i));
+        }
+        ArrayList<Integer> outTables = new ArrayList<Integer>();
+        ArrayList<Integer> outCols = new ArrayList<Integer>();
+        for (Object selectItem : selectList) {
+            if (selectItem == SelectStatement.STAR) {
+                for (int i = 0; i < numTables; i++) {
+                    for (int j = 0; j < this.stmt.getTable(i).numColumns(); j++) {
+                        outTables.add(i);
+                        outCols.add(j);
+                    }
+                }
+            } else if (selectItem instanceof Column) {
+                Column col = (Column)selectItem;
+                int i = this.tableOf(col);
+                outTables.add(i);
+                outCols.add(columnIndex(col, this.stmt.getTable(i)));
+            } else {
+                throw new Exception("The select list may only contain " +
+                                    "columns and *");
+            }
+        }
+
+        /*
+         * Give each term that involves only one table to that table's
+         * iterator.  A term without columns (e.g., one that compares
+         * two parameters) is given to the first table.
+         */
+        this.splitTerms(this.stmt.getWhere());
+        this.applied = new boolean[this.terms.size()];
+        ConditionalExpression[] pushed = new ConditionalExpression[numTables];
+        for (int t = 0; t < this.terms.size(); t++) {
+            long tables = this.termTables.get(t);
+            if (Long.bitCount(tables) <= 1) {
+                int i = (tables == 0 ? 0 : Long.numberOfTrailingZeros(tables));
+                pushed[i] = and(pushed[i], this.terms.get(t));
+                this.applied[t] = true;
+            }
+        }
+
+        try {
+            for (int i = 0; i < numTables; i++) {
+                Table table = this.stmt.getTable(i);
+                this.iters[i] = new TableIterator(this.stmt, table, pushed[i]);
+
+                /* The columns are bound now, so the stats can be found. */
+                TableStats stats = Catalog.getStats(table.getName());
+                double rows = (stats == null ? UNKNOWN_ROWS :
+                               stats.getNumRows());
+                if (pushed[i] != null) {
+                    rows *= pushed[i].estimateSelectivity();
+                }
+                this.estimates[i] = rows;
+            }
+
+            HashJoinIterator join = this.join();
+            TableIterator[] projIters = new TableIterator[outTables.size()];
+            int[] projCols = new int[outCols.size()];
+            for (int i = 0; i < projCols.length; i++) {
+                projIters[i] = this.iters[outTables.get(i)];
+                projCols[i] = outCols.get(i);
+            }
+            join.project(projIters, projCols);
+
+            if (DBMS.DEBUG) {
+                System.out.println("join plan: " + join);
+            }
+            return join;
+        } catch (Exception e) {
+            for (TableIterator iter : this.iters) {
+                if (iter != null) {
+                    iter.close();
+                }
+            }
+            throw e;
+        }
+    }
+
+    /*
+     * Joins the tables' iterators in the order described above.
+     */
+    private HashJoinIterator join() throws Exception {
+        long memoryBudget = Config.getInt(Config.JOIN_MEMORY,
+                                          HashJoinIterator.DEFAULT_MEMORY) *
+                            1024L * 1024L;
+
+        int first = this.nextTable(0);
+        long joined = 1L << first;
+        RelationIterator plan = this.iters[first];
+        double planRows = this.estimates[first];
+        HashJoinIterator join = null;
+
+        for (int k = 1; k < this.iters.length; k++) {
+            int next = this.nextTable(joined);
+            long both = joined | (1L << next);
+
+            /*
+             * Evaluate the terms whose tables have all been joined, and
+             * use the equalities between the two inputs as keys.
+             */
+            ConditionalExpression condition = null;
+            double selectivity = 1;
+            ArrayList<Column> planKeys = new ArrayList<Column>();
+            ArrayList<Column> nextKeys = new ArrayList<Column>();
+            for (int t = 0; t < this.terms.size(); t++) {
+                if (this.applied[t] || (this.termTables.get(t) & ~both) != 0) {
+                    continue;
+                }
+                ConditionalExpression term = this.terms.get(t);
+                condition = and(condition, term);
+                selectivity *= term.estimateSelectivity();
+                this.applied[t] = true;
+
+                if (!(term instanceof Comparison)) {
+                    continue;
+                }
+                Comparison comp = (Comparison)term;
+                CompareTerm left = comp.getLeftTerm();
+                CompareTerm right = comp.getRightTerm();
+                if (comp.getType() != Comparison.EQ ||
+                    !(left instanceof Column) || !(right instanceof Column)) {
+                    continue;
+                }
+                int leftTable = this.tableOf((Column)left);
+                int rightTable = this.tableOf((Column)right);
+                if (rightTable == next && leftTable != next) {
+                    planKeys.add((Column)left);
+                    nextKeys.add((Column)right);
+                } else if (leftTable == next && rightTable != next) {
+                    planKeys.add((Column)right);
+                    nextKeys.add((Column)left);
+                }
+            }
+
+            Column[] pk = planKeys.toArray(new Column[0]);
+            Column[] nk = nextKeys.toArray(new Column[0]);
+            double nextRows = this.estimates[next];
+            if (nextRows <= planRows) {
+                join = new HashJoinIterator(this.iters[next], plan, nk, pk,
+                                            condition, memoryBudget);
+            } else {
+                join = new HashJoinIterator(plan, this.iters[next], pk, nk,
+                                            condition, memoryBudget);
+            }
+            plan = join;
+            planRows = planRows * nextRows * selectivity;
+            joined = both;
+        }
+        return join;
+    }
+
+    /*
+     * Returns the table that should be joined next with the specified
+     * set of tables: the one with the fewest expected rows, preferring
+     * those that a term of the WHERE clause connects to the set.
+     */
+    private int nextTable(long joined) {
+        int best = -1;
+        boolean bestConnected = false;
+        for (int i = 0; i < this.iters.length; i++) {
+            long table = 1L << i;
+            if ((joined & table) != 0) {
+                continue;
+            }
+
+            boolean connected = false;
+            for (int t = 0; t < this.terms.size() && !connected; t++) {
+                long tables = this.termTables.get(t);
+                connected = (!this.applied[t] && (tables & table) != 0 &&
+                             (tables & joined) != 0 &&
+                             (tables & ~(joined | table)) == 0);
+            }
+            if (best < 0 || (connected && !bestConnected) ||
+                (connected == bestConnected &&
+                 this.estimates[i] < this.estimates[best])) {
+                best = i;
+                bestConnected = connected;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Adds the terms of the specified condition that are ANDed
+     * together to the list of terms, along with the set of tables
+     * whose columns each one uses.
+     */
+    private void splitTerms(ConditionalExpression exp) throws Exception {
+        if (exp == null) {
+            return;
+        } else if (exp instanceof AndExpression) {
+            this.splitTerms(exp.getLeft());
+            this.splitTerms(exp.getRight());
+            return;
+        }
+
+        ArrayList<Column> cols = new ArrayList<Column>();
+        SQLStatement.getColumnsFrom(exp, cols);
+        long tables = 0;
+        for (Column col : cols) {
+            tables |= 1L << this.tableOf(col);
+        }
+        this.terms.add(exp);
+        this.termTables.add(tables);
+    }
+
+    /*
+     * Returns the index in the FROM clause of the table to which the
+     * specified column belongs.
+     */
+    private int tableOf(Column col) throws Exception {
+        int match = -1;
+        for (int i = 0; i < this.stmt.numTables(); i++) {
+            Table table = this.stmt.getTable(i);
+            if (columnIndex(col, table) < 0) {
+                continue;
+            } else if (match >= 0) {
+                throw new Exception("The column name " + name(col) +
+                                    " is ambiguous");
+            }
+            match = i;
+        }
+        if (match < 0) {
+            throw new Exception("There is no column named " + name(col));
+        }
+        return match;
+    }
+
+    /*
+     * Returns the index of the specified column in the specified table,
+     * or -1 if it isn't one of the table's columns.
+     */
+    private static int columnIndex(Column col, Table table) {
+        for (int i = 0; i < table.numColumns(); i++) {
+            if (col.nameMatches(table.getColumn(i), table)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Returns the name of the column as it appears in the statement.
+     */
+    private static String name(Column col) {
+        Table table = col.getTable();
+        if (table == null) {
+            return col.getName();
+        }
+        String rangeVar = table.getRangeVar();
+        return (rangeVar == null ? table.getName() : rangeVar) + "." +
+               col.getName();
+    }
+
+    private static ConditionalExpression and(ConditionalExpression left,
+                                             ConditionalExpression right)
+    {
+        return (left == null ? right : new AndExpression(left, right));
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * KeyEncoding.java
+ *
+ * DBMS Implementation
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A class with methods for marshalling the values that are used as keys
+ * -- primary keys, and the keys of secondary indexes.
+ *
+ * Berkeley DB orders keys by comparing their bytes as unsigned values.
+ * The bytes that DataOutputStream writes for an int (two's complement)
+ * or a double (IEEE 754) do not sort in numeric order under that
+ * comparison: negative values sort after positive ones, and negative
+ * doubles sort in reverse.  Tables created with the ORDERED format
+ * therefore use an order-preserving encoding for numeric keys:
+ *
+ * <ul>
+ * <li>an int is written with its sign bit flipped</li>
+ * <li>a double is written with its sign bit flipped if it is
+ *     non-negative, and with all of its bits flipped if it is negative</li>
+ * </ul>
+ *
+ * Strings are written one byte per char in both formats, which already
+ * sorts in the same order as String.compareTo().
+ *
+ * The format of each table is stored in its catalog entry, so tables
+ * created before the ORDERED format was introduced keep using the RAW
+ * format.
+ */
+public class KeyEncoding {
+    /** Keys are written exactly like other values (the original format). */
+    public static final int RAW = 0;
+
+    /** Numeric keys are written using the order-preserving encoding. */
+    public static final int ORDERED = 1;
+
+    /** The format used for newly created tables. */
+    public static final int CURRENT = ORDERED;
+
+    private static final int INT_SIGN = 0x80000000;
+    private static final long DOUBLE_SIGN = 0x8000000000000000L;
+
+    /**
+     * Writes a key of the specified column type to a RowOutput.
+     *
+     * @param  out  the RowOutput
+     * @param  type  the column type (e.g., Column.INTEGER)
+     * @param  val  the value of the key
+     * @param  format  the key format of the key's table
+     * @throws IOException if the RowOutput throws one
+     */
+    public static void writeKey(RowOutput out, int type, Object val,
+                                int format) throws IOException {
+        switch (type) {
+            case Column.INTEGER:
+                out.writeInt(encodeInt((Integer)val, format));
+                break;
+            case Column.REAL:
+                out.writeLong(encodeDouble((Double)val, format));
+                break;
+            default:
+                out.writeBytes((String)val);
+        }
+    }
+
+    /**
+     * Returns the marshalled form of a key, or null if the value isn't
+     * of a type that can be compared with keys of the specified column
+     * type (e.g., a String for an INTEGER column).
+     *
+     * @param  type  the column type (e.g., Column.INTEGER)
+     * @param  val  the value of the key
+     * @param  format  the key format of the key's table
+     * @return  the bytes of the key
+     */
+    public static byte[] encode(int type, Object val, int format) {
+        switch (type) {
+            case Column.INTEGER:
+                if (!(val instanceof Integer)) {
+                    return null;
+                }
+                return intBytes(encodeInt((Integer)val, format));
+            case Column.REAL:
+                if (!(val instanceof Number)) {
+                    return null;
+                }
+                double d = ((Number)val).doubleValue();
+                return longBytes(encodeDouble(d, format));
+            default:
+                if (!(val instanceof String)) {
+                    return null;
+                }
+                return ((String)val).getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Converts the marshalled form of a column value (as written to the
+     * value portion of a row) to the marshalled form of a key, in place.
+     *
+     * @param  bytes  the array containing the value
+     * @param  offset  the offset of the value in the array
+     * @param  type  the column type (e.g., Column.INTEGER)
+     * @param  format  the key format of the column's table
+     */
+    public static void valueToKey(byte[] bytes, int offset, int type,
+                                  int format) {
+        if (format == RAW) {
+            return;
+        }
+        if (type == Column.INTEGER) {
+            bytes[offset] ^= (byte)0x80;
+        } else if (type == Column.REAL) {
+            if (bytes[offset] < 0) {
+                for (int i = 0; i < 8; i++) {
+                    bytes[offset + i] = (byte)~bytes[offset + i];
+                }
+            } else {
+                bytes[offset] ^= (byte)0x80;
+            }
+        }
+    }
+
+    /**
+     * Returns the int whose bytes are the marshalled form of the
+     * specified INTEGER key.
+     */
+    public static int encodeInt(int val, int format) {
+        return (format == ORDERED ? val ^ INT_SIGN : val);
+    }
+
+    /**
+     * Returns the INTEGER key whose marshalled form is the bytes of
+     * the specified int.
+     */
+    public static int decodeInt(int bits, int format) {
+        return (format == ORDERED ? bits ^ INT_SIGN : bits);
+    }
+
+    /**
+     * Returns the long whose bytes are the marshalled form of the
+     * specified REAL key.
+     */
+    public static long encodeDouble(double val, int format) {
+        long bits = Double.doubleToLongBits(val);
+        if (format == ORDERED) {
+            bits ^= (bits < 0 ? -1L : DOUBLE_SIGN);
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the REAL key whose marshalled form is the bytes of
+     * the specified long.
+     */
+    public static double decodeDouble(long bits, int format) {
+        if (format == ORDERED) {
+            bits ^= (bits < 0 ? DOUBLE_SIGN : -1L);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private static byte[] intBytes(int i) {
+        return new byte[] { (byte)(i >>> 24), (byte)(i >>> 16),
+                            (byte)(i >>> 8), (byte)i };
+    }
+
+    private static byte[] longBytes(long l) {
+        byte[] bytes = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte)(l >>> (56 - 8*i));
+        }
+        return bytes;
+    }
+}
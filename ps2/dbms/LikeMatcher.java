@@ -0,0 +1,281 @@
+/*
+ * LikeMatcher.java
+ *
+ * DBMS Implementation
+ */
+
+import java.util.regex.Pattern;
+
+/**
+ * A class that determines whether strings match the pattern of a LIKE
+ * (or, ignoring case, a CLIKE) comparison, in which % matches any
+ * sequence of characters and _ matches any single character.
+ *
+ * Most patterns don't need a regular expression, so a pattern is
+ * compiled into the simplest matcher that can handle it:
+ * <ul>
+ * <li>a pattern without wildcards is compared using equals()</li>
+ * <li>abc% is checked using startsWith()</li>
+ * <li>%abc is checked using endsWith()</li>
+ * <li>%abc% is checked using indexOf(), which the JVM implements with
+ *     a vectorized substring search</li>
+ * <li>% matches every string</li>
+ * </ul>
+ * Any other pattern is converted to a java.util.regex.Pattern, in which
+ * the characters other than the wildcards are quoted, so that they are
+ * matched literally.
+ */
+public abstract class LikeMatcher {
+    private String pattern;
+    private String prefix;
+
+    private LikeMatcher(String pattern) {
+        this.pattern = pattern;
+        int end = 0;
+        while (end < pattern.length() && pattern.charAt(end) != '%' &&
+               pattern.charAt(end) != '_') {
+            end++;
+        }
+        this.prefix = pattern.substring(0, end);
+    }
+
+    /**
+     * Compiles the specified pattern.
+     *
+     * @param  pattern  the SQL pattern
+     * @param  ignoreCase  should the case of letters be ignored (as it
+     *         is by CLIKE)?
+     * @return  the matcher
+     */
+    public static LikeMatcher compile(String pattern, boolean ignoreCase) {
+        int numPercents = 0;
+        boolean hasUnderscore = false;
+        boolean ascii = true;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '%') {
+                numPercents++;
+            } else if (c == '_') {
+                hasUnderscore = true;
+            } else if (c > 127) {
+                ascii = false;
+            }
+        }
+
+        /*
+         * The regex ignores the case of ASCII letters only, so the
+         * other matchers are only used for CLIKE if that is the same.
+         */
+        if (hasUnderscore || (ignoreCase && !ascii)) {
+            return new RegexMatcher(pattern, ignoreCase);
+        }
+
+        /* Trim the %s from both ends, and look for any in between. */
+        int start = 0;
+        int end = pattern.length();
+        while (start < end && pattern.charAt(start) == '%') {
+            start++;
+        }
+        while (end > start && pattern.charAt(end - 1) == '%') {
+            end--;
+        }
+        String literal = pattern.substring(start, end);
+        if (literal.indexOf('%') >= 0) {
+            return new RegexMatcher(pattern, ignoreCase);
+        }
+
+        boolean leading = (start > 0);
+        boolean trailing = (end < pattern.length());
+        if (numPercents == 0) {
+            return new ExactMatcher(pattern, ignoreCase);
+        } else if (literal.isEmpty()) {
+            return new AnyMatcher(pattern);
+        } else if (!leading) {
+            return new PrefixMatcher(pattern, literal, ignoreCase);
+        } else if (!trailing) {
+            return new SuffixMatcher(pattern, literal, ignoreCase);
+        } else {
+            return new ContainsMatcher(pattern, literal, ignoreCase);
+        }
+    }
+
+    /**
+     * Determines whether the specified string matches the pattern.
+     *
+     * @param  s  the string (which must not be null)
+     * @return  true if it matches, and false otherwise
+     */
+    public abstract boolean matches(String s);
+
+    /**
+     * Estimates the cost of matching a typical string, in units of the
+     * cost of comparing an INTEGER column with a constant (see
+     * ConditionalExpression.estimateCost()).
+     *
+     * @return  the estimated cost
+     */
+    public abstract double cost();
+
+    /**
+     * Returns the characters at the start of the pattern that precede
+     * its first wildcard.  Every string that matches a LIKE pattern
+     * begins with them, so they limit the range of values that can
+     * match (see AccessPath).
+     *
+     * @return  the literal prefix, which is empty if the pattern begins
+     *          with a wildcard
+     */
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    /**
+     * Returns the SQL pattern.
+     */
+    public String toString() {
+        return this.pattern;
+    }
+
+    private static final class ExactMatcher extends LikeMatcher {
+        private String literal;
+        private boolean ignoreCase;
+
+        ExactMatcher(String pattern, boolean ignoreCase) {
+            super(pattern);
+            this.literal = pattern;
+            this.ignoreCase = ignoreCase;
+        }
+
+        public boolean matches(String s) {
+            return (this.ignoreCase ? s.equalsIgnoreCase(this.literal) :
+                                      s.equals(this.literal));
+        }
+
+        public double cost() {
+            return 1;
+        }
+    }
+
+    private static final class PrefixMatcher extends LikeMatcher {
+        private String literal;
+        private boolean ignoreCase;
+
+        PrefixMatcher(String pattern, String literal, boolean ignoreCase) {
+            super(pattern);
+            this.literal = literal;
+            this.ignoreCase = ignoreCase;
+        }
+
+        public boolean matches(String s) {
+            return s.regionMatches(this.ignoreCase, 0, this.literal, 0,
+                                   this.literal.length());
+        }
+
+        public double cost() {
+            return 1;
+        }
+    }
+
+    private static final class SuffixMatcher extends LikeMatcher {
+        private String literal;
+        private boolean ignoreCase;
+
+        SuffixMatcher(String pattern, String literal, boolean ignoreCase) {
+            super(pattern);
+            this.literal = literal;
+            this.ignoreCase = ignoreCase;
+        }
+
+        public boolean matches(String s) {
+            int start = s.length() - this.literal.length();
+            return (start >= 0 &&
+                    s.regionMatches(this.ignoreCase, start, this.literal, 0,
+                                    this.literal.length()));
+        }
+
+        public double cost() {
+            return 1;
+        }
+    }
+
+    private static final class ContainsMatcher extends LikeMatcher {
+        private String literal;
+        private boolean ignoreCase;
+
+        ContainsMatcher(String pattern, String literal, boolean ignoreCase) {
+            super(pattern);
+            this.literal = literal;
+            this.ignoreCase = ignoreCase;
+        }
+
+        public boolean matches(String s) {
+            if (!this.ignoreCase) {
+                return (s.indexOf(this.literal) >= 0);
+            }
+            int len = this.literal.length();
+            for (int i = 0; i + len <= s.length(); i++) {
+                if (s.regionMatches(true, i, this.literal, 0, len)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public double cost() {
+            return (this.ignoreCase ? 8 : 3);
+        }
+    }
+
+    private static final class AnyMatcher extends LikeMatcher {
+        AnyMatcher(String pattern) {
+            super(pattern);
+        }
+
+        public boolean matches(String s) {
+            return true;
+        }
+
+        public double cost() {
+            return 0;
+        }
+    }
+
+    private static final class RegexMatcher extends LikeMatcher {
+        private Pattern regex;
+
+        RegexMatcher(String pattern, boolean ignoreCase) {
+            super(pattern);
+
+            /* Quote the runs of characters between the wildcards. */
+            StringBuilder expr = new StringBuilder();
+            int start = 0;
+            for (int i = 0; i <= pattern.length(); i++) {
+                char c = (i < pattern.length() ? pattern.charAt(i) : '%');
+                if (c != '%' && c != '_') {
+                    continue;
+                }
+                if (i > start) {
+                    expr.append(Pattern.quote(pattern.substring(start, i)));
+                }
+                if (i < pattern.length()) {
+                    expr.append(c == '%' ? ".*" : ".");
+                }
+                start = i + 1;
+            }
+
+            int flags = Pattern.DOTALL;
+            if (ignoreCase) {
+                flags |= Pattern.CASE_INSENSITIVE;
+            }
+            this.regex = Pattern.compile(expr.toString(), flags);
+        }
+
+        public boolean matches(String s) {
+            return this.regex.matcher(s).matches();
+        }
+
+        public double cost() {
+            return 20;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * LoadStatement.java
+ *
+ * DBMS Implementation
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents a LOAD command, which bulk-loads the rows in a
+ * comma-separated text file into an existing table:
+ *
+ * <pre>LOAD "file" INTO table [BATCH n];</pre>
+ *
+ * Each line of the file is one row, and its fields are given in the
+ * same order as the table's columns.  An empty field is a null value.
+ * If a line has more fields than the table has columns, the last column
+ * gets the rest of the line (commas included), which allows files like
+ * the users*.txt files from PS 4 to be loaded into a table whose last
+ * column is a VARCHAR.
+ *
+ * Rather than going through the SQL parser and an auto-commit
+ * transaction for every row, the rows are marshalled using a single
+ * InsertRow and inserted in explicit transactions that are committed
+ * after every n rows (DEFAULT_BATCH_SIZE if BATCH isn't specified).
+ * If a row can't be inserted, the current batch is rolled back, and
+ * the rows from the earlier batches remain in the table.  If there is
+ * a transaction in progress, all of the rows are inserted in that
+ * transaction instead, and a failure rolls it back.
+ *
+ * With <code>PARALLEL k</code>, the lines are parsed and marshalled by
+ * k worker threads, and the marshalled rows are sorted by key (using 
+ * sorted runs on disk if they exceed the MEMORY budget, in megabytes)
+ * before a single writer inserts them in key order.  Inserting in key 
+ * order avoids the B-tree node splits and cache misses caused by 
+ * inserting in random key order.  In this mode, every line is parsed 
+ * before any row is inserted, so a malformed line means that no rows
+ * are loaded.
+ */
+public class LoadStatement extends SQLStatement {
+    /** The number of rows per transaction if BATCH isn't specified. */
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+
+    /** The memory budget (in MB) for sorting if MEMORY isn't specified. */
+    public static final int DEFAULT_SORT_MEMORY = 64;
+
+    /* the number of lines handed to a worker thread at a time */
+    private static final int LINES_PER_TASK = 4096;
+
+    private String fileName;
+    private int batchSize;
+    private int parallelism;
+    private int sortMemory;
+
+    /**
+     * Constructs a LoadStatement object that will load the specified
+     * file into the specified table.
+     *
+     * @param  t  the table into which the rows should be loaded
+     * @param  fileName  the name of the file containing the rows
+     * @param  batchSize  the number of rows to insert per transaction
+     */
+    public LoadStatement(Table t, String fileName, int batchSize) {
+        this(t, fileName, batchSize, 1, DEFAULT_SORT_MEMORY);
+    }
+
+    /**
+     * Constructs a LoadStatement object that will load the specified
+     * file into the specified table.  If parallelism is greater than 1,
+     * the rows are parsed by that many threads and inserted in key order.
+     *
+     * @param  t  the table into which the rows should be loaded
+     * @param  fileName  the name of the file containing the rows
+     * @param  batchSize  the number of rows to insert per transaction
+     * @param  parallelism  the number of threads used to parse the rows
+     * @param  sortMemory  the memory budget for sorting, in megabytes
+     */
+    public LoadStatement(Table t, String fileName, int batchSize,
+                         int parallelism, int sortMemory) {
+        super(t);
+        this.fileName = fileName;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.sortMemory = sortMemory;
+    }
+
+    public void execute() throws DatabaseException, DeadlockException {
+        Table table = this.getTable(0);
+        BatchWriter writer = null;
+        long startTime = System.currentTimeMillis();
+
+        try {
+            if (table.open() != OperationStatus.SUCCESS) {
+                throw new Exception();  // error msg was printed in open()
+            }
+
+            writer = new BatchWriter(table.getDB(), this.batchSize,
+                                     DBMS.getTxn());
+            if (this.parallelism > 1) {
+                this.loadSorted(table, writer);
+            } else {
+                this.loadSequential(table, writer);
+            }
+            writer.finish();
+        } catch (Exception e) {
+            this.reportError(e, "Could not load all rows from " +
+                                this.fileName);
+
+            if (writer != null) {
+                writer.abort();
+            }
+        }
+
+        long numLoaded = (writer == null ? 0 : writer.numLoaded);
+        this.setUpdateCount(numLoaded);
+        long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+        System.out.println("Loaded " + numLoaded + " rows into " + table +
+                           " in " + (elapsed / 1000.0) + " seconds (" +
+                           (numLoaded * 1000 / elapsed) + " rows/sec).");
+    }
+
+    /*
+     * Inserts the rows in the order in which they appear in the file,
+     * parsing and marshalling them in this thread.
+     */
+    private void loadSequential(Table table, BatchWriter writer)
+        throws Exception
+    {
+        InsertRow row = new InsertRow(table);
+        Object[] values = new Object[table.numColumns()];
+        DatabaseEntry key = new DatabaseEntry();
+        DatabaseEntry value = new DatabaseEntry();
+
+        try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+            long lineNum = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNum++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                parseLine(table, line, lineNum, values);
+                row.setValues(values);
+                row.marshall();
+                row.setEntries(key, value);
+                writer.put(key, value, lineNum);
+            }
+        }
+    }
+
+    /*
+     * Parses and marshalls the rows using a pool of worker threads,
+     * sorts the marshalled rows by key, and then inserts them in key
+     * order.
+     */
+    private void loadSorted(final Table table, BatchWriter writer)
+        throws Exception
+    {
+        ExecutorService workers = Executors.newFixedThreadPool(this.parallelism);
+        ExternalSort sorter = new ExternalSort(this.sortMemory * 1024L * 1024L);
+
+        try (BufferedReader in = new BufferedReader(new FileReader(fileName))) {
+            /*
+             * Hand the lines to the workers in fixed-size chunks.  We
+             * limit the number of chunks in flight so that the unsorted
+             * rows don't use more memory than the sort's budget.
+             */
+            ArrayDeque<Future<ArrayList<ExternalSort.Record>>> pending =
+              new ArrayDeque<Future<ArrayList<ExternalSort.Record>>>();
+            long lineNum = 0;
+            boolean done = false;
+            while (!done) {
+                final long firstLineNum = lineNum + 1;
+                final ArrayList<String> lines = new ArrayList<String>(LINES_PER_TASK);
+                String line;
+                while (lines.size() < LINES_PER_TASK && 
+                       (line = in.readLine()) != null) {
+                    lines.add(line);
+                    lineNum++;
+                }
+                done = (lines.size() < LINES_PER_TASK);
+
+                pending.add(workers.submit(new Callable<ArrayList<ExternalSort.Record>>() {
+                    public ArrayList<ExternalSort.Record> call() throws IOException {
+                        return marshallLines(table, lines, firstLineNum);
+                    }
+                }));
+                while (pending.size() > 2 * this.parallelism ||
+                       (done && !pending.isEmpty())) {
+                    for (ExternalSort.Record r : getResult(pending.remove())) {
+                        sorter.add(r);
+                    }
+                }
+            }
+
+            /* Insert the rows in key order, checking for duplicate keys. */
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry value = new DatabaseEntry();
+            byte[] prevKey = null;
+            ExternalSort.Record r;
+            while ((r = sorter.next()) != null) {
+                if (prevKey != null && Arrays.equals(prevKey, r.getKey())) {
+                    throw new IllegalArgumentException("line " + 
+                      r.getLineNum() + ": the file contains more than " +
+                      "one row with the same primary key");
+                }
+                prevKey = r.getKey();
+
+                key.setData(r.getKey());
+                value.setData(r.getValue());
+                writer.put(key, value, r.getLineNum());
+            }
+        } finally {
+            workers.shutdownNow();
+            sorter.close();
+        }
+    }
+
+    /*
+     * Parses and marshalls the specified lines, which begin at the
+     * specified line of the file.  Called by the worker threads, each of
+     * which uses its own InsertRow.
+     */
+    private static ArrayList<ExternalSort.Record> marshallLines(Table table,
+      ArrayList<String> lines, long firstLineNum) throws IOException
+    {
+        InsertRow row = new InsertRow(table);
+        Object[] values = new Object[table.numColumns()];
+        ArrayList<ExternalSort.Record> records = 
+          new ArrayList<ExternalSort.Record>(lines.size());
+
+        long lineNum = firstLineNum;
+        for (String line : lines) {
+            if (!line.isEmpty()) {
+                parseLine(table, line, lineNum, values);
+                row.setValues(values);
+                row.marshall();
+                records.add(new ExternalSort.Record(
+                  row.getKeyBuffer().getBufferBytes(),
+                  row.getValueBuffer().getBufferBytes(), lineNum));
+            }
+            lineNum++;
+        }
+        return records;
+    }
+
+    /*
+     * Waits for a worker's result, rethrowing any exception that
+     * the worker encountered.
+     */
+    private static <T> T getResult(Future<T> f) throws Exception {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Splits a line of the input file into one value per column of the
+     * specified table, converting each value to the column's type and
+     * making the same adjustments as an INSERT command.
+     *
+     * @param  table  the table into which the row will be inserted
+     * @param  line  the line from the input file
+     * @param  lineNum  the number of the line (for error messages)
+     * @param  values  the array in which to store the values
+     * @throws IllegalArgumentException if the line has too few values
+     *         or a value is invalid for its column
+     */
+    public static void parseLine(Table table, String line, long lineNum,
+                                 Object[] values) {
+        int numColumns = table.numColumns();
+        int start = 0;
+        for (int i = 0; i < numColumns; i++) {
+            if (start > line.length()) {
+                throw new IllegalArgumentException("line " + lineNum + 
+                  ": expected " + numColumns + " values");
+            }
+
+            /* The last column gets the rest of the line. */
+            int end = (i == numColumns - 1 ? -1 : line.indexOf(',', start));
+            if (end < 0) {
+                end = line.length();
+            }
+            String field = line.substring(start, end);
+            start = end + 1;
+
+            Column col = table.getColumn(i);
+            try {
+                Object val;
+                if (field.isEmpty()) {
+                    val = null;
+                } else if (col.getType() == Column.INTEGER) {
+                    val = Integer.valueOf(field.trim());
+                } else if (col.getType() == Column.REAL) {
+                    val = Double.valueOf(field.trim());
+                } else {
+                    val = field;
+                }
+                values[i] = col.adjustValue(val);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("line " + lineNum + 
+                  ": invalid number for column " + col.getName() + 
+                  " (" + field + ")");
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("line " + lineNum + 
+                  ": " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Inserts rows in transactions of batchSize rows each, or in the
+     * transaction in progress if there is one.
+     */
+    private static class BatchWriter {
+        private Database db;
+        private int batchSize;
+        private Transaction userTxn;
+        private Transaction txn;
+        private long numInBatch;
+        private long numLoaded;
+
+        BatchWriter(Database db, int batchSize, Transaction userTxn) {
+            this.db = db;
+            this.batchSize = batchSize;
+            this.userTxn = userTxn;
+            this.txn = userTxn;
+        }
+
+        /* Inserts a row, committing the current batch if it is full. */
+        void put(DatabaseEntry key, DatabaseEntry value, long lineNum)
+            throws DatabaseException
+        {
+            if (this.txn == null) {
+                this.txn = DBMS.getEnv().beginTransaction(null, null);
+            }
+            if (this.db.putNoOverwrite(this.txn, key, value) ==
+                OperationStatus.KEYEXIST) {
+                throw new IllegalArgumentException("line " + lineNum +
+                  ": there is an existing row with the specified " +
+                  "primary key");
+            }
+
+            this.numInBatch++;
+            if (this.numInBatch == this.batchSize) {
+                this.finish();
+            }
+        }
+
+        /* Commits the current batch, if any. */
+        void finish() throws DatabaseException {
+            if (this.userTxn != null) {
+                /* The rows are committed along with the transaction. */
+                this.numLoaded += this.numInBatch;
+                this.numInBatch = 0;
+            } else if (this.txn != null) {
+                this.txn.commit();
+                this.txn = null;
+                this.numLoaded += this.numInBatch;
+                this.numInBatch = 0;
+            }
+        }
+
+        /* Rolls back the current batch, if any. */
+        void abort() throws DatabaseException {
+            if (this.userTxn != null) {
+                if (this.numLoaded + this.numInBatch > 0) {
+                    DBMS.abortTxn();
+                }
+                this.numLoaded = 0;
+                this.numInBatch = 0;
+            } else if (this.txn != null) {
+                this.txn.abort();
+                this.txn = null;
+                this.numInBatch = 0;
+            }
+        }
+    }
+}
@@ -4,6 +4,8 @@
  * DBMS Implementation
  */
 
+import java.util.function.BooleanSupplier;
+
 /**
  * A class that represents a conditional expression involving a NOT operator.
  * A NotExpression involves one conditional subexpression, and it is true
@@ -30,4 +32,17 @@ public class NotExpression extends ConditionalExpression {
     public boolean isTrue() {
         return (! this.getLeft().isTrue());
     }
+    
+    public BooleanSupplier compile() {
+        BooleanSupplier expr = this.getLeft().compile();
+        return () -> (! expr.getAsBoolean());
+    }
+    
+    public double estimateCost() {
+        return this.getLeft().estimateCost();
+    }
+    
+    public double estimateSelectivity() {
+        return 1 - this.getLeft().estimateSelectivity();
+    }
 }
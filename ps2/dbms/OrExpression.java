@@ -4,6 +4,8 @@
  * DBMS Implementation
  */
 
+import java.util.function.BooleanSupplier;
+
 /**
  * A class that represents a conditional expression involving an OR operator.
  * An OrExpression involves two conditional subexpressions, and it is true
@@ -33,4 +35,24 @@ public class OrExpression extends ConditionalExpression {
     public boolean isTrue() {
         return (this.getLeft().isTrue() || this.getRight().isTrue());
     }
+    
+    /*
+     * The subexpressions are evaluated in the order that is expected
+     * to be cheapest, rather than in the order in which they appear.
+     */
+    public BooleanSupplier compile() {
+        return AdaptiveJunction.compile(this);
+    }
+    
+    public double estimateCost() {
+        return this.getLeft().estimateCost() +
+          (1 - this.getLeft().estimateSelectivity()) *
+          this.getRight().estimateCost();
+    }
+    
+    public double estimateSelectivity() {
+        double leftSel = this.getLeft().estimateSelectivity();
+        double rightSel = this.getRight().estimateSelectivity();
+        return 1 - (1 - leftSel) * (1 - rightSel);
+    }
 }
@@ -299,12 +299,15 @@ public class Parser extends java_cup.runtime.lr_parser {
     
     
     
+    private String syntaxError;
+    
     public void syntax_error(Symbol cur_token) {
-        System.err.println("Syntax error beginning at character " +
-                           cur_token.left + ": \"" + cur_token.value + "\"");
+        this.syntaxError = "Syntax error beginning at character " +
+                           cur_token.left + ": \"" + cur_token.value + "\"";
+        System.err.println(this.syntaxError);
     }
     public void unrecovered_syntax_error(Symbol cur_token) {
-        throw new InvalidSyntaxException();
+        throw new InvalidSyntaxException(this.syntaxError);
     }
     
 }
@@ -0,0 +1,49 @@
+/*
+ * PrepareStatement.java
+ *
+ * DBMS Implementation
+ */
+
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents a PREPARE statement, which parses a statement
+ * (possibly with <code>?</code> placeholders for its values) and gives
+ * it a name, so that it can be executed using EXECUTE without parsing
+ * it again:
+ *
+ * <pre>PREPARE name AS statement;</pre>
+ *
+ * The name is only known to the session that prepared the statement.
+ */
+public class PrepareStatement extends SQLStatement {
+    private String name;
+    private PreparedSQL ps;
+    
+    /**
+     * Constructs a PrepareStatement object that will give the specified
+     * name to the specified statement.
+     *
+     * @param  name  the name of the prepared statement
+     * @param  ps  the parsed statement
+     */
+    public PrepareStatement(String name, PreparedSQL ps) {
+        super();
+        this.name = name;
+        this.ps = ps;
+    }
+    
+    public void execute() throws DatabaseException, DeadlockException {
+        if (!Session.current().putPrepared(this.name, this.ps)) {
+            this.reportError(this.name + ": a prepared statement with " +
+                             "this name already exists",
+                             "Could not prepare statement " + this.name);
+            return;
+        }
+        
+        int numParams = this.ps.numParams();
+        System.out.println("Prepared statement " + this.name + " with " +
+                           numParams + " " +
+                           (numParams == 1 ? "parameter" : "parameters") + ".");
+    }
+}
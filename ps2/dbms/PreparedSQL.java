@@ -0,0 +1,275 @@
+/*
+ * PreparedSQL.java
+ *
+ * DBMS Implementation
+ */
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A class that represents a SQL statement that has been parsed once so
+ * that it can be executed any number of times.  The statement may
+ * contain <code>?</code> placeholders in the places where a value can
+ * appear -- the values in an INSERT command, the new values in the SET
+ * clause of an UPDATE command, and the operands of the comparisons in
+ * a WHERE clause (including the pattern of a LIKE) -- and values for
+ * the placeholders are supplied using bind() before each execution:
+ *
+ * <pre>PREPARE ins AS INSERT INTO t VALUES (?, ?);
+ * EXECUTE ins USING 1, "one";</pre>
+ *
+ * Because the SQL parser doesn't know about placeholders, each one is
+ * replaced by a string literal containing a marker, and the markers are
+ * then found in the parsed statement and replaced by the bound values.
+ *
+ * A parsed statement refers to the tables it names by Table objects,
+ * which become stale if one of those tables is dropped (and perhaps
+ * created again with different columns).  Therefore, a PreparedSQL
+ * object records the version of the schema under which it was parsed
+ * (see Catalog.getSchemaVersion()), and revalidate() parses it again
+ * if the schema has changed since then.
+ *
+ * A PreparedSQL object (and its SQLStatement) must only be used by one
+ * session at a time.
+ */
+public class PreparedSQL {
+    /* the character that surrounds the number of a placeholder's marker */
+    private static final char MARKER = '\u0001';
+
+    private String sql;
+    private SQLStatement stmt;
+    private Binder[] params;
+    private long schemaVersion;     // the version when it was parsed
+
+    /*
+     * An action that stores the value of a parameter in the statement.
+     */
+    private interface Binder {
+        void bind(Object val);
+    }
+
+    private PreparedSQL(String sql, SQLStatement stmt, int numParams,
+                        long schemaVersion) {
+        this.sql = sql;
+        this.stmt = stmt;
+        this.params = new Binder[numParams];
+        this.schemaVersion = schemaVersion;
+    }
+
+    /**
+     * Returns the normalised form of a command string, in which each
+     * sequence of whitespace outside of a quoted string has been
+     * replaced by a single space.  Command strings with the same
+     * normalised form produce the same statement.
+     *
+     * @param  sql  the command string
+     * @return  the normalised command string
+     */
+    public static String normalize(String sql) {
+        StringBuilder str = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && str.length() > 0) {
+                str.append(' ');
+            }
+            space = false;
+            str.append(c);
+            if (quote == 0 && (c == '"' || c == '\'')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+        }
+        return str.toString();
+    }
+
+    /**
+     * Parses the specified command string.
+     *
+     * @param  sql  the command string, which may contain placeholders
+     * @return  the prepared statement
+     * @throws InvalidSyntaxException if the command is malformed (in
+     *         which case the parser has printed an error message)
+     * @throws IllegalArgumentException if a placeholder is used in a
+     *         place where a value isn't allowed
+     */
+    public static PreparedSQL parse(String sql) {
+        sql = normalize(sql);
+        long schemaVersion = Catalog.getSchemaVersion();
+
+        /* First, check for the commands that aren't part of the SQL grammar. */
+        SQLStatement stmt = ExtensionParser.parse(sql);
+        if (stmt != null) {
+            return new PreparedSQL(sql, stmt, 0, schemaVersion);
+        }
+
+        /* Replace the placeholders with markers. */
+        StringBuilder marked = new StringBuilder(sql.length());
+        char quote = 0;
+        int numParams = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == 0 && c == '?') {
+                marked.append("\"" + MARKER + numParams + MARKER + "\"");
+                numParams++;
+                continue;
+            }
+            marked.append(c);
+            if (quote == 0 && (c == '"' || c == '\'')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+        }
+
+        try {
+            Parser p = new Parser(new Lexer(new StringReader(marked.toString())));
+            stmt = (SQLStatement)p.parse().value;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // the CUP parser declares that it throws Exception
+            throw new IllegalArgumentException(e.getMessage());
+        }
+
+        PreparedSQL ps = new PreparedSQL(sql, stmt, numParams, schemaVersion);
+        if (numParams > 0) {
+            ps.findParams();
+        }
+        return ps;
+    }
+
+    /*
+     * Finds the markers in the parsed statement and creates a Binder
+     * for each of them.
+     */
+    private void findParams() {
+        SQLStatement stmt = this.stmt;
+        if (stmt instanceof InsertStatement) {
+            for (int i = 0; i < stmt.numColumnVals(); i++) {
+                final int valIndex = i;
+                this.addParam(stmt.getColumnVal(i),
+                              v -> stmt.setColumnVal(valIndex, v));
+            }
+        } else if (stmt instanceof UpdateStatement) {
+            for (int i = 0; i < stmt.numColumns(); i++) {
+                Column col = stmt.getColumn(i);
+                this.addParam(col.getUpdateVal(), v -> col.setUpdateVal(v));
+            }
+        }
+        this.findParams(stmt.getWhere());
+
+        for (int i = 0; i < this.params.length; i++) {
+            if (this.params[i] == null) {
+                throw new IllegalArgumentException("placeholder " + (i + 1) +
+                  " is not in a place where a value is allowed");
+            }
+        }
+    }
+
+    /*
+     * Finds the markers in the comparisons of a WHERE clause.
+     */
+    private void findParams(ConditionalExpression exp) {
+        if (exp == null) {
+            return;
+        } else if (exp instanceof Comparison) {
+            Comparison comp = (Comparison)exp;
+            CompareTerm left = comp.getLeftTerm();
+            CompareTerm right = comp.getRightTerm();
+            if (!(left instanceof Column)) {
+                this.addParam(left.getValue(), v -> comp.setLeftValue(v));
+            }
+            if (right != null && !(right instanceof Column)) {
+                this.addParam(right.getValue(), v -> comp.setRightValue(v));
+            }
+        } else {
+            this.findParams(exp.getLeft());
+            this.findParams(exp.getRight());
+        }
+    }
+
+    /*
+     * Records the binder for a value, if the value is a marker.
+     */
+    private void addParam(Object val, Binder binder) {
+        if (val instanceof String) {
+            String s = (String)val;
+            if (s.length() > 2 && s.charAt(0) == MARKER &&
+                s.charAt(s.length() - 1) == MARKER) {
+                int i = Integer.parseInt(s.substring(1, s.length() - 1));
+                this.params[i] = binder;
+            }
+        }
+    }
+
+    /**
+     * Supplies values for the placeholders, which are used by every
+     * subsequent execution of the statement until new values are bound.
+     * The values are Integers, Doubles, Strings, or null, just like the
+     * values produced by the SQL parser.
+     *
+     * @param  vals  the values, in the order of the placeholders
+     * @throws IllegalArgumentException if the number of values is wrong
+     *         or a value can't be used in the place of its placeholder
+     */
+    public void bind(Object... vals) {
+        if (vals.length != this.params.length) {
+            throw new IllegalArgumentException("the statement has " +
+              this.params.length + " parameter(s), but " + vals.length +
+              " value(s) were given");
+        }
+        for (int i = 0; i < vals.length; i++) {
+            this.params[i].bind(vals[i]);
+        }
+    }
+
+    /**
+     * Parses the statement again if the schema of the database has
+     * changed since it was parsed.  Any values that were bound to its
+     * placeholders must then be bound again, so this should be called
+     * before bind().
+     */
+    public void revalidate() {
+        if (this.schemaVersion == Catalog.getSchemaVersion()) {
+            return;
+        }
+        PreparedSQL ps = parse(this.sql);
+        this.stmt = ps.stmt;
+        this.params = ps.params;
+        this.schemaVersion = ps.schemaVersion;
+    }
+
+    /**
+     * Returns the parsed statement, which is executed with the most
+     * recently bound values.
+     *
+     * @return  the statement
+     */
+    public SQLStatement getStatement() {
+        return this.stmt;
+    }
+
+    /**
+     * Returns the number of placeholders in the statement.
+     *
+     * @return  the number of parameters
+     */
+    public int numParams() {
+        return this.params.length;
+    }
+
+    /**
+     * Returns the normalised command string of the statement.
+     */
+    public String toString() {
+        return this.sql;
+    }
+}
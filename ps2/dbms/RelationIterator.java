@@ -0,0 +1,177 @@
+/*
+ * RelationIterator.java
+ *
+ * DBMS Implementation
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import com.sleepycat.je.*;
+
+/**
+ * An abstract class for iterators over the rows of a relation -- either
+ * a stored table (see TableIterator) or the join of two relations (see
+ * HashJoinIterator).  It provides the methods that the output of a
+ * SELECT statement needs (see printAll() and ResultCursor).
+ *
+ * Every row of a relation is made up of one row from each of a list of
+ * tables, and while the iterator is positioned on a row, the
+ * TableIterators of those tables (see getTableIterators()) are
+ * positioned on the rows that make it up, so that the columns of the
+ * statement get their values from them as usual.  This allows a row to
+ * be saved as bytes (see saveRow()) -- e.g., in the hash table of a
+ * join -- and later restored without decoding any of its values.
+ */
+public abstract class RelationIterator {
+    /**
+     * Advances the iterator to the next row of the relation.  If the
+     * iterator is newly created, this method positions it on the first
+     * row.
+     *
+     * @return true if the iterator was advanced to a new row, and false
+     *         if there are no more rows to visit
+     * @throws DeadlockException if deadlock occurs while accessing the
+     *         underlying BDB database(s)
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         while accessing the underlying database(s)
+     */
+    public abstract boolean next() throws DeadlockException, DatabaseException;
+
+    /**
+     * Closes the iterator, which closes any BDB handles and temporary
+     * files that it is using.
+     *
+     * @throws DatabaseException if Berkeley DB encounters a problem
+     *         while closing a handle
+     */
+    public abstract void close() throws DatabaseException;
+
+    /**
+     * Gets the number of rows that the iterator has visited.
+     *
+     * @return  the number of rows visited
+     */
+    public abstract int numTuples();
+
+    /**
+     * Gets the number of columns that the iterator produces.
+     *
+     * @return  the number of columns
+     */
+    public abstract int numOutputColumns();
+
+    /**
+     * Gets the column at the specified position in the output.
+     *
+     * @param  i  the position of the column, starting from 0
+     * @return  the column
+     * @throws  IndexOutOfBoundsException if the position is invalid
+     */
+    public abstract Column getOutputColumn(int i);
+
+    /**
+     * Gets the value of the column at the specified position in the
+     * output, in the row on which this iterator is positioned.
+     *
+     * @param  i  the position of the column, starting from 0
+     * @return  the value of the column
+     * @throws  IllegalStateException if the iterator has not yet been
+     *          been positioned on a row
+     * @throws  IndexOutOfBoundsException if the position is invalid
+     */
+    public abstract Object getOutputVal(int i);
+
+    /**
+     * Returns the iterators of the tables whose rows make up the rows
+     * of this relation.
+     *
+     * @return  the iterators, which must not be modified
+     */
+    public abstract TableIterator[] getTableIterators();
+
+    /**
+     * Writes the row on which the iterator is positioned to the
+     * specified RowOutput: the marshalled key and value from each of
+     * the tables, each preceded by its length.
+     *
+     * @param  out  the RowOutput
+     * @throws IOException if the RowOutput throws one
+     */
+    public void saveRow(RowOutput out) throws IOException {
+        for (TableIterator iter : this.getTableIterators()) {
+            iter.saveRow(out);
+        }
+    }
+
+    /**
+     * Positions the iterators of the tables on the row that was saved
+     * at the specified offset in the specified array (see saveRow()).
+     * The array must not be modified while they are positioned on it.
+     *
+     * @param  bytes  the array
+     * @param  offset  the offset of the saved row
+     * @return  the offset of the first byte after the saved row
+     */
+    public int restoreRow(byte[] bytes, int offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (TableIterator iter : this.getTableIterators()) {
+            offset = iter.restoreRow(buffer, offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Iterates over all rows in the relation and prints the columns
+     * in the output to the specified PrintStream (e.g., System.out).
+     *
+     * @throws DeadlockException if deadlock occurs while accessing the
+     *         underlying BDB database(s)
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         while accessing the underlying database(s)
+     */
+    public void printAll(PrintStream out)
+        throws DeadlockException, DatabaseException
+    {
+        // Display column names -- and compute the length of the separator.
+        int separatorLen = 0;
+
+        out.println();
+        for (int i = 0; i < this.numOutputColumns(); i++) {
+            Column col = this.getOutputColumn(i);
+            out.print(" | " + col.getName());
+
+            int colWidth = col.printWidth();
+            for (int j = col.getName().length(); j < colWidth; j++) {
+                out.print(" ");
+            }
+            separatorLen += (colWidth + 3);
+        }
+        out.println(" | ");
+        separatorLen += 3;
+
+        // Display the separator.
+        for (int i = 0; i < separatorLen; i++) {
+            out.print("-");
+        }
+        out.println();
+
+        // Print the tuples.
+        while (this.next()) {
+            for (int i = 0; i < this.numOutputColumns(); i++) {
+                Object val = this.getOutputVal(i);
+                String valString =
+                    (val == null ? "null" : val.toString());
+
+                out.print(" | " + valString);
+
+                int valWidth = valString.length();
+                int colWidth = this.getOutputColumn(i).printWidth();
+                for (int j = valWidth; j < colWidth; j++) {
+                    out.print(" ");
+                }
+            }
+            out.println(" | ");
+        }
+        out.println();
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * ResultCursor.java
+ *
+ * DBMS Implementation
+ */
+
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import com.sleepycat.je.*;
+
+/**
+ * A class that gives a Java program the rows selected by a query (see
+ * Session.query()), one at a time and in order.  The values are taken
+ * directly from the iterator that visits the rows (see
+ * RelationIterator), without being formatted as text.
+ *
+ * The cursor holds the resources that the query is using -- e.g., its
+ * cursor on the table -- until it is closed, so it should be closed
+ * (by the thread that opened it) as soon as it is no longer needed:
+ *
+ * <pre>try (ResultCursor rows = session.query("SELECT * FROM t;")) {
+ *     while (rows.next()) {
+ *         int id = rows.getInt(0);
+ *         ...
+ *     }
+ * }</pre>
+ *
+ * Like the columns of a table, the columns of a cursor are numbered
+ * starting from 0, in the order of the query's select list.
+ */
+public class ResultCursor implements AutoCloseable {
+    private RelationIterator iter;
+    private Runnable onClose;
+    private boolean onRow;
+    private boolean wasNull;
+
+    /**
+     * Constructs a ResultCursor object for the rows visited by the
+     * specified iterator.
+     *
+     * @param  iter  the iterator, which must not have been advanced yet
+     * @param  onClose  an action that releases the other resources of
+     *         the query when the cursor is closed
+     */
+    public ResultCursor(RelationIterator iter, Runnable onClose) {
+        this.iter = iter;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Advances the cursor to the next row.  The cursor is initially
+     * positioned before the first row.
+     *
+     * @return  true if there is a next row, and false if there are no
+     *          more rows
+     * @throws SQLException if the cursor is closed, or Berkeley DB (or,
+     *         for a join, a temporary file) encounters a problem reading
+     *         the row
+     */
+    public boolean next() throws SQLException {
+        this.checkOpen();
+        try {
+            this.onRow = this.iter.next();
+            return this.onRow;
+        } catch (DatabaseException e) {
+            throw new SQLException("could not read the next row: " +
+                                   e.getMessage(), e);
+        } catch (UncheckedIOException e) {
+            throw new SQLException("could not read the next row: " +
+                                   e.getCause().getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the number of columns in the rows.
+     */
+    public int numColumns() throws SQLException {
+        this.checkOpen();
+        return this.iter.numOutputColumns();
+    }
+
+    /**
+     * Returns the name of the column with the specified index.
+     *
+     * @param  i  the index of the column
+     * @return  the column's name
+     * @throws SQLException if the cursor is closed or the index is invalid
+     */
+    public String getColumnName(int i) throws SQLException {
+        return this.column(i).getName();
+    }
+
+    /**
+     * Returns the type of the column with the specified index -- one
+     * of the constants defined in the Column class (e.g., Column.INTEGER).
+     *
+     * @param  i  the index of the column
+     * @return  the column's type
+     * @throws SQLException if the cursor is closed or the index is invalid
+     */
+    public int getColumnType(int i) throws SQLException {
+        return this.column(i).getType();
+    }
+
+    /**
+     * Returns the index of the column with the specified name.
+     *
+     * @param  name  the name of the column
+     * @return  the column's index
+     * @throws SQLException if the cursor is closed or there is no
+     *         column with that name
+     */
+    public int findColumn(String name) throws SQLException {
+        for (int i = 0; i < this.numColumns(); i++) {
+            if (this.iter.getOutputColumn(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new SQLException("no column named " + name);
+    }
+
+    /**
+     * Returns the value of the specified column in the current row as
+     * an Integer, Double, or String, or null if it is NULL.
+     *
+     * @param  i  the index of the column
+     * @return  the value
+     * @throws SQLException if the cursor isn't positioned on a row or
+     *         the index is invalid
+     */
+    public Object getObject(int i) throws SQLException {
+        this.column(i);
+        if (!this.onRow) {
+            throw new SQLException("the cursor is not positioned on a row");
+        }
+        Object val = this.iter.getOutputVal(i);
+        this.wasNull = (val == null);
+        return val;
+    }
+
+    /**
+     * Returns the value of the specified INTEGER column in the current
+     * row, or 0 if it is NULL (see wasNull()).
+     *
+     * @param  i  the index of the column
+     * @return  the value
+     * @throws SQLException if the column isn't an INTEGER column, the
+     *         cursor isn't positioned on a row, or the index is invalid
+     */
+    public int getInt(int i) throws SQLException {
+        this.checkType(i, Column.INTEGER, "INTEGER");
+        Object val = this.getObject(i);
+        return (val == null ? 0 : (Integer)val);
+    }
+
+    /**
+     * Returns the value of the specified INTEGER or REAL column in the
+     * current row, or 0 if it is NULL (see wasNull()).
+     *
+     * @param  i  the index of the column
+     * @return  the value
+     * @throws SQLException if the column isn't a numeric column, the
+     *         cursor isn't positioned on a row, or the index is invalid
+     */
+    public double getDouble(int i) throws SQLException {
+        if (this.column(i).getType() != Column.INTEGER) {
+            this.checkType(i, Column.REAL, "REAL");
+        }
+        Object val = this.getObject(i);
+        return (val == null ? 0 : ((Number)val).doubleValue());
+    }
+
+    /**
+     * Returns the value of the specified column in the current row as a
+     * String, or null if it is NULL.  Numeric values are converted to
+     * strings.
+     *
+     * @param  i  the index of the column
+     * @return  the value
+     * @throws SQLException if the cursor isn't positioned on a row or
+     *         the index is invalid
+     */
+    public String getString(int i) throws SQLException {
+        Object val = this.getObject(i);
+        return (val == null ? null : val.toString());
+    }
+
+    /**
+     * Returns true if the value most recently obtained from the cursor
+     * was NULL.
+     */
+    public boolean wasNull() {
+        return this.wasNull;
+    }
+
+    /**
+     * Returns the number of rows that the cursor has visited so far.
+     */
+    public int numRows() {
+        return (this.iter == null ? 0 : this.iter.numTuples());
+    }
+
+    /**
+     * Closes the cursor and releases the resources of the query.  It is
+     * safe to call this method more than once.
+     *
+     * @throws SQLException if Berkeley DB encounters a problem closing
+     *         the cursor on the table
+     */
+    public void close() throws SQLException {
+        if (this.iter == null) {
+            return;
+        }
+        try {
+            this.iter.close();
+        } catch (DatabaseException e) {
+            throw new SQLException("could not close the cursor: " +
+                                   e.getMessage(), e);
+        } finally {
+            this.iter = null;
+            this.onRow = false;
+            this.onClose.run();
+        }
+    }
+
+    private void checkOpen() throws SQLException {
+        if (this.iter == null) {
+            throw new SQLException("the cursor has been closed");
+        }
+    }
+
+    /*
+     * Returns the column with the specified index.
+     */
+    private Column column(int i) throws SQLException {
+        this.checkOpen();
+        if (i < 0 || i >= this.iter.numOutputColumns()) {
+            throw new SQLException("invalid column index " + i);
+        }
+        return this.iter.getOutputColumn(i);
+    }
+
+    private void checkType(int i, int type, String typeName)
+        throws SQLException
+    {
+        Column col = this.column(i);
+        if (col.getType() != type) {
+            throw new SQLException(col.getName() + " is not a " +
+                                   typeName + " column");
+        }
+    }
+}
@@ -16,6 +16,16 @@ public class RollbackStatement extends SQLStatement {
     }
     
     public void execute() throws DatabaseException, DeadlockException {
-        /* not implemented for this assignment */
+        try {
+            Transaction txn = DBMS.getTxn();
+            if (txn == null) {
+                throw new Exception("There is no transaction in progress");
+            }
+            DBMS.setTxn(null);
+            txn.abort();
+            System.out.println("Rolled back transaction.");
+        } catch (Exception e) {
+            this.reportError(e, "Could not roll back transaction");
+        }
     }
 }
@@ -4,37 +4,88 @@
  * DBMS Implementation
  */
 
-import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
  * An input stream with methods that read values from a byte array.
- * It uses a DataInputStream, and it is similar to the TupleInput class 
- * from Berkeley DB's Bind API.
+ * It uses a ByteBuffer view of the array, and it is similar to the 
+ * TupleInput class from Berkeley DB's Bind API.
  *
  * We're using our own version so that we can make it easier to perform
  * the types of reads that are needed during unmarshalling.
+ *
+ * All reads are absolute reads on the ByteBuffer, so reading at an
+ * arbitrary offset does not require resetting or skipping through a
+ * stream.  A RowInput can also be rebound to a new byte array using
+ * setBytes(), which allows a single RowInput to be reused for every
+ * row visited by a TableIterator.
  */
 public class RowInput {
     /* the underlying byte array used by this RowInput object */
     private byte[] bytes;
     
-    /* the underlying DataInputStream used by this RowInput object */
-    private DataInputStream dataIn;
+    /* the ByteBuffer view of the byte array used for the actual reads */
+    private ByteBuffer buffer;
+    
+    /* the index in the byte array of the first byte of the row */
+    private int base;
+    
+    /* the number of bytes in the row */
+    private int length;
     
-    /* the current offset within the byte array */
+    /* the current offset within the row */
     private int currentOffset;
     
     /**
      * Constructs a RowInput object
      */
     public RowInput(byte[] bytes) {
-        this.bytes = bytes;
-        this.dataIn = new DataInputStream(new ByteArrayInputStream(bytes));
-        this.dataIn.mark(0);
+        this(bytes, 0, bytes.length);
+    }
+    
+    /**
+     * Constructs a RowInput object for the length bytes that begin
+     * at the specified offset in the byte array -- e.g., the portion of
+     * the array that is used by a DatabaseEntry.
+     */
+    public RowInput(byte[] bytes, int offset, int length) {
+        this.setBytes(bytes, offset, length);
+    }
+    
+    /**
+     * Rebinds this RowInput to the length bytes that begin at the
+     * specified offset in the byte array, and resets the current offset
+     * to 0.  A new ByteBuffer view is only created if the byte array
+     * is not the one that is already being used.
+     *
+     * @throws  IllegalArgumentException if offset and length do not
+     *          specify a valid portion of the array
+     */
+    public void setBytes(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IllegalArgumentException("invalid offset " + offset
+                      + " and length " + length + " for a byte array "
+                      + "of length " + bytes.length);
+        }
+        if (bytes != this.bytes) {
+            this.bytes = bytes;
+            this.buffer = ByteBuffer.wrap(bytes);
+        }
+        this.base = offset;
+        this.length = length;
         this.currentOffset = 0;
     }
     
+    /**
+     * Returns the number of bytes after the current offset -- i.e.,
+     * the number of bytes that are left for the readNext methods.
+     */
+    public int bytesRemaining() {
+        return this.length - this.currentOffset;
+    }
+    
     /*
      * Checks the validity of an offset specified by the user,
      * seeing if it is possible to read bytesToRead bytes at that
@@ -44,25 +95,26 @@ public class RowInput {
      *          or if offset is too large to read numBytes bytes
      */
     private void checkOffset(int offset, int bytesToRead) {
-        if (offset < 0 || offset > this.bytes.length - bytesToRead) {
+        if (offset < 0 || bytesToRead < 0 
+              || offset > this.length - bytesToRead) {
             String err = "cannot read " + bytesToRead + " bytes "
                        + "at an offset of " + offset + " in a "
-                       + "byte array of length " + this.bytes.length;
+                       + "byte array of length " + this.length;
             throw new IllegalArgumentException(err);
         }
     }
 
     /*
      * Prepares for a read of bytesToRead bytes at the specified offset
-     * in this RowInput's bytes array.
+     * in this RowInput's bytes array, returning the absolute index of
+     * the first byte to read.
      * 
      * @throws  IllegalArgumentException if offset is negative or too large
      */
-    private void prepare(int offset, int bytesToRead) throws IOException {
+    private int prepare(int offset, int bytesToRead) {
         checkOffset(offset, bytesToRead);
-        this.dataIn.reset();
-        this.dataIn.skip(offset);
-        this.currentOffset = offset;
+        this.currentOffset = offset + bytesToRead;
+        return this.base + offset;
     }
     
     /**
@@ -70,18 +122,9 @@ public class RowInput {
      * 
      * @return  the boolean value that was read
      * @throws  IllegalArgumentException if offset is negative or too large
-     * @throws  IllegalStateException if the read cannot be performed
-     *          for some other reason
      */
     public boolean readBooleanAtOffset(int offset) {
-        try {
-            this.prepare(offset, 1);
-            boolean ret = this.dataIn.readBoolean();
-            this.currentOffset += 1;
-            return ret;
-        } catch(IOException e) {
-            throw new IllegalStateException(e.toString());
-        }
+        return this.buffer.get(this.prepare(offset, 1)) != 0;
     }
     
     /**
@@ -103,18 +146,9 @@ public class RowInput {
      * 
      * @return  the byte that was read
      * @throws  IllegalArgumentException if offset is negative or too large
-     * @throws  IllegalStateException if the read cannot be performed
-     *          for some other reason
      */
     public byte readByteAtOffset(int offset) {
-        try {
-            this.prepare(offset, 1);
-            byte ret = this.dataIn.readByte();
-            this.currentOffset += 1;
-            return ret;
-        } catch(IOException e) {
-            throw new IllegalStateException(e.toString());
-        }
+        return this.buffer.get(this.prepare(offset, 1));
     }
     
     /**
@@ -137,18 +171,9 @@ public class RowInput {
      * 
      * @return  the short that was read
      * @throws  IllegalArgumentException if offset is negative or too large
-     * @throws  IllegalStateException if the read cannot be performed
-     *          for some other reason
      */
     public short readShortAtOffset(int offset) {
-        try {
-            this.prepare(offset, 2);
-            short ret = this.dataIn.readShort();
-            this.currentOffset += 2;
-            return ret;
-        } catch(IOException e) {
-            throw new IllegalStateException(e.toString());
-        }
+        return this.buffer.getShort(this.prepare(offset, 2));
     }
     
     /**
@@ -172,18 +197,9 @@ public class RowInput {
      * 
      * @return  the integer that was read
      * @throws  IllegalArgumentException if offset is negative or too large
-     * @throws  IllegalStateException if the read cannot be performed
-     *          for some other reason
      */
     public int readIntAtOffset(int offset) {
-        try {
-            this.prepare(offset, 4);
-            int ret = this.dataIn.readInt();
-            this.currentOffset += 4;
-            return ret;
-        } catch(IOException e) {
-            throw new IllegalStateException(e.toString());
-        }
+        return this.buffer.getInt(this.prepare(offset, 4));
     }
     
     /**
@@ -202,25 +218,42 @@ public class RowInput {
     }
 
     /**
-     * reads a value of type double at the specified offset in this 
-     * RowInput's byte array
+     * reads a long (an eight-byte integer) at the specified offset in 
+     * this RowInput's byte array
      * 
-     * @return  the double that was read
+     * @return  the long that was read
      * @throws  IllegalArgumentException if offset is negative or too large
+     */
+    public long readLongAtOffset(int offset) {
+        return this.buffer.getLong(this.prepare(offset, 8));
+    }
+    
+    /**
+     * reads a long (an eight-byte integer) at the current offset in 
+     * this RowInput's byte array
+     * 
+     * @return  the long that was read
      * @throws  IllegalStateException if the read cannot be performed
-     *          for some other reason
      */
-    public double readDoubleAtOffset(int offset) {
+    public long readNextLong() {
         try {
-            this.prepare(offset, 8);
-            double ret = this.dataIn.readDouble();
-            this.currentOffset += 8;
-            return ret;
-        } catch(IOException e) {
+            return this.readLongAtOffset(this.currentOffset);
+        } catch (IllegalArgumentException e) {
             throw new IllegalStateException(e.toString());
         }
     }
     
+    /**
+     * reads a value of type double at the specified offset in this 
+     * RowInput's byte array
+     * 
+     * @return  the double that was read
+     * @throws  IllegalArgumentException if offset is negative or too large
+     */
+    public double readDoubleAtOffset(int offset) {
+        return this.buffer.getDouble(this.prepare(offset, 8));
+    }
+    
     /**
      * reads a value of type double at the current offset in 
      * this RowInput's byte array
@@ -243,21 +276,16 @@ public class RowInput {
      * @return  the String that was read
      * @throws  IllegalArgumentException if either value is negative 
      *          or if offset is too large to read numBytes bytes
-     * @throws  IllegalStateException if the read cannot be performed
-     *          for some other reason
      */
     public String readBytesAtOffset(int offset, int numBytes) {
-        try {
-            this.prepare(offset, numBytes);
-            String ret = "";
-            for (int i = 0; i < numBytes; i++) {
-                ret += (char)this.dataIn.readByte();
-                this.currentOffset++;
-            }    
-            return ret;
-        } catch(IOException e) {
-            throw new IllegalStateException(e.toString());
-        }
+        /*
+         * Each byte was written using DataOutputStream.writeBytes(),
+         * which keeps the low-order byte of each char, so ISO-8859-1
+         * decodes it back to the same char in a single pass.
+         */
+        int start = this.prepare(offset, numBytes);
+        return new String(this.bytes, start, numBytes,
+                          StandardCharsets.ISO_8859_1);
     }
     
     /**
@@ -281,7 +309,9 @@ public class RowInput {
      * @return  a String for this RowInput
      */
     public String toString() {
-        return "byte array: " + Arrays.toString(this.bytes) + "\n"
+        byte[] row = Arrays.copyOfRange(this.bytes, this.base,
+                                        this.base + this.length);
+        return "byte array: " + Arrays.toString(row) + "\n"
              + "current offset: " + this.currentOffset;
     }
 }
\ No newline at end of file
@@ -17,28 +17,24 @@ import java.util.*;
  * for debugging purposes.
  */
 public class RowOutput extends DataOutputStream {
-    /* 
-     * We temporarily use this static variable for the ByteArrayOutputStream 
-     * that we pass into the DataOutputStream constructor. This is less than 
-     * ideal (and not thread-safe), but it stems from the requirement that the
-     * call to the superclass constructor must be on the first line of 
-     * the constructor for this class. At that point, there is no "this"
-     * reference, so we can't assign the ByteArrayOutputStream to
-     * the bytes field at that point. Instead, we temporarily assign it
-     * to the static variable, and then we assign it to the bytes field
-     * after the superclass constructor has returned.
-     */
-    private static ByteArrayOutputStream baos = null;
-    
-    /* the underlying ByteArrayOutputStream used by this RowOutput object */
-    private ByteArrayOutputStream bytes;
+    /* the underlying growable buffer used by this RowOutput object */
+    private RowBuffer bytes;
     
     /**
      * Constructs a RowOutput object
      */
     public RowOutput() {
-        super(baos = new ByteArrayOutputStream());
-        this.bytes = baos;
+        this(new RowBuffer());
+    }
+    
+    /*
+     * Constructs a RowOutput object that writes into the specified
+     * buffer.  Having the public constructor pass the buffer in lets us
+     * keep a reference to it without a shared static variable.
+     */
+    private RowOutput(RowBuffer bytes) {
+        super(bytes);
+        this.bytes = bytes;
     }
     
     /**
@@ -47,7 +43,21 @@ public class RowOutput extends DataOutputStream {
      * @return  an array of bytes written to this RowOutput
      */
     public byte[] getBufferBytes() {
-        return this.bytes.toByteArray();
+        return Arrays.copyOf(this.bytes.buf, this.bytes.count);
+    }
+    
+    /**
+     * Returns the byte array that this RowOutput is currently writing
+     * into, without copying it.  Only the first getBufferLength() bytes
+     * of the array are meaningful, and the array may be replaced by a
+     * larger one (or overwritten, after reset()) by later writes.  
+     * This is intended for handing the bytes to a DatabaseEntry that
+     * will be used before this RowOutput is written to again.
+     *
+     * @return  the backing array of this RowOutput
+     */
+    public byte[] getBackingBytes() {
+        return this.bytes.buf;
     }
     
     /**
@@ -56,7 +66,18 @@ public class RowOutput extends DataOutputStream {
      * @return  the number of bytes written
      */
     public int getBufferLength() {
-        return this.bytes.size();
+        return this.bytes.count;
+    }
+    
+    /**
+     * Discards the bytes written to this RowOutput so that it can be
+     * reused.  The backing array is kept, so a RowOutput that is reused
+     * for many rows stops allocating once it has grown to the size of
+     * the largest row.
+     */
+    public void reset() {
+        this.bytes.count = 0;
+        this.written = 0;
     }
     
     /**
@@ -68,4 +89,35 @@ public class RowOutput extends DataOutputStream {
     public String toString() {
         return Arrays.toString(this.getBufferBytes());
     }
+    
+    /*
+     * A growable byte array that serves as the OutputStream for a 
+     * RowOutput.  Unlike ByteArrayOutputStream, it is not synchronized
+     * (a RowOutput is only used by one thread at a time), and it allows 
+     * the RowOutput to access the backing array directly.
+     */
+    private static class RowBuffer extends OutputStream {
+        private static final int INIT_SIZE = 64;
+        
+        private byte[] buf = new byte[INIT_SIZE];
+        private int count = 0;
+        
+        private void ensureCapacity(int needed) {
+            if (needed > this.buf.length) {
+                int newSize = Math.max(needed, 2 * this.buf.length);
+                this.buf = Arrays.copyOf(this.buf, newSize);
+            }
+        }
+        
+        public void write(int b) {
+            this.ensureCapacity(this.count + 1);
+            this.buf[this.count++] = (byte)b;
+        }
+        
+        public void write(byte[] b, int off, int len) {
+            this.ensureCapacity(this.count + len);
+            System.arraycopy(b, off, this.buf, this.count, len);
+            this.count += len;
+        }
+    }
 }
\ No newline at end of file
@@ -18,6 +18,8 @@ public abstract class SQLStatement {
     private ArrayList<Object> columnVals;
     private ConditionalExpression where;
     private ArrayList<Column> whereColumns;
+    private long updateCount;
+    private String error;
     
     /**
      * Default constructor, used in the constructors for subclasses
@@ -100,8 +102,8 @@ public abstract class SQLStatement {
     
     // helper method that finds all column objects in the specified
     // WHERE clause (exp) and adds them to the specified list
-    private static void getColumnsFrom(ConditionalExpression exp,
-                                       ArrayList<Column> cl)
+    static void getColumnsFrom(ConditionalExpression exp,
+                               ArrayList<Column> cl)
     {
         if (exp == null) {
             return;
@@ -133,6 +135,124 @@ public abstract class SQLStatement {
      */
     public abstract void execute() throws DatabaseException, DeadlockException;
     
+    /**
+     * Returns true if this statement must not be executed at the same
+     * time as any other statement -- e.g., because it changes the schema
+     * of the database or closes the handles of a table.  Statements are
+     * executed concurrently by default.
+     *
+     * @return  true if the statement needs exclusive access, and false
+     *          otherwise
+     */
+    public boolean needsExclusiveAccess() {
+        return false;
+    }
+    
+    /**
+     * Returns the number of rows that were added, changed, or removed by
+     * the most recent execution of this statement (0 for statements
+     * that don't modify rows).
+     *
+     * @return  the update count
+     */
+    public long getUpdateCount() {
+        return this.updateCount;
+    }
+    
+    /**
+     * Records the number of rows that were added, changed, or removed by
+     * the current execution of this statement.
+     *
+     * @param  n  the update count
+     */
+    protected void setUpdateCount(long n) {
+        this.updateCount = n;
+    }
+    
+    /**
+     * Returns the error message of the most recent execution of this
+     * statement, or null if it succeeded.  This is the message that the
+     * statement printed to System.err (see reportError()), so a program
+     * that executes statements (see Session.execute()) can tell whether
+     * one failed without reading its output.
+     *
+     * @return  the error message, or null if there was no error
+     */
+    public String getError() {
+        return this.error;
+    }
+    
+    /**
+     * Records the error message of the current execution of this
+     * statement (or null, to clear it before an execution).
+     *
+     * @param  error  the error message
+     */
+    protected void setError(String error) {
+        this.error = error;
+    }
+    
+    /**
+     * Reports that the current execution of this statement failed
+     * because of the specified exception, by printing the exception's
+     * message (if any) and the specified summary to System.err and
+     * recording them as the statement's error (see getError()).
+     *
+     * @param  e  the exception
+     * @param  summary  what could not be done (e.g., "Could not insert
+     *         row"), without a final period, or null to print only the
+     *         exception's message
+     */
+    protected void reportError(Exception e, String summary) {
+        this.reportError(e.getMessage(), summary);
+    }
+    
+    /**
+     * Reports that the current execution of this statement failed, by
+     * printing the specified message (if any) and summary to System.err
+     * and recording them as the statement's error (see getError()).
+     * If there is no message, the reason that one of the statement's
+     * tables couldn't be opened (see Table.getOpenError()) -- which
+     * Table.open() has already printed -- is recorded in its place.
+     *
+     * @param  errMsg  the reason for the failure, or null
+     * @param  summary  what could not be done, or null
+     */
+    protected void reportError(String errMsg, String summary) {
+        if (errMsg != null) {
+            System.err.println(errMsg + ".");
+        }
+        if (summary != null) {
+            System.err.println(summary + ".");
+        }
+        
+        if (errMsg == null && this.tables != null) {
+            for (Table table : this.tables) {
+                if (table.getOpenError() != null) {
+                    errMsg = table.getOpenError();
+                    break;
+                }
+            }
+        }
+        String error = (errMsg == null ? "" : errMsg + ".");
+        if (summary != null) {
+            error += (error.isEmpty() ? "" : "\n") + summary + ".";
+        }
+        this.error = (error.isEmpty() ? "the statement failed" : error);
+    }
+    
+    /**
+     * Returns true if this statement can be executed more than once --
+     * and thus kept in a session's cache of parsed statements (see
+     * PreparedSQL) -- because executing it doesn't change its state.
+     * Statements are not reusable by default.
+     *
+     * @return  true if the statement is reusable, and false otherwise
+     */
+    public boolean isReusable() {
+        return false;
+    }
+    
     /**
      * Adds a table to the list of tables for this statement.
      *
@@ -172,6 +292,24 @@ public abstract class SQLStatement {
         this.columnVals.add(cv);
     }
     
+    /**
+     * Replaces the column value with the specified index in this
+     * statement.  Used to supply the values of a prepared statement.
+     *
+     * @param  i  the index of the column value
+     * @param  cv  the new column value
+     * @throws  RuntimeException if the statement does not specify any column
+     *          values
+     * @throws  IndexOutOfBoundsException if the specified index is invalid
+     */
+    public void setColumnVal(int i, Object cv) {
+        if (this.columnVals == null) {
+            throw new RuntimeException("this type of statement does not " +
+              "specify any column values");
+        }
+        this.columnVals.set(i, cv);
+    }
+    
     /**
      * Returns the table with the specified index in this statement. 
      * The first table has an index of 0.
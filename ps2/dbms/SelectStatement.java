@@ -61,29 +61,23 @@ public class SelectStatement extends SQLStatement {
         return this.distinctSpecified;
     }
     
+    /*
+     * Everything that an execution computes is kept outside the
+     * statement, so a parsed statement can be executed again.
+     */
+    public boolean isReusable() {
+        return true;
+    }
+    
     public void execute() throws DatabaseException, DeadlockException {
-        TableIterator iter = null;
+        RelationIterator iter = null;
         
         try {
-            /* 
-             * PS 2: Add code here to implement the rest of the method
-             * as described in the assignment.
-             */
-            Table table = this.getTable(0);
-            if(table.open() != OperationStatus.SUCCESS){
-                throw new Exception();
-            }
-            if(this.numTables() != 1 | this.selectList.size()!=1){
-                throw new Exception();
-            }
-            iter = new TableIterator(this,table,true);
+            iter = this.open();
             iter.printAll(System.out);
             
         } catch (Exception e) {
-            String errMsg = e.getMessage();
-            if (errMsg != null) {
-                System.err.println(errMsg + ".");
-            }
+            this.reportError(e, null);
         }
         
         if (iter != null) {
@@ -91,4 +85,71 @@ public class SelectStatement extends SQLStatement {
             iter.close();
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * Opens the tables and returns an iterator over the rows that this
+     * statement selects, which the caller must close.  If there is
+     * more than one table, the iterator joins them (see JoinPlanner).
+     * Used by execute(), and by Session.query() to give the rows to a
+     * Java program.
+     *
+     * @return  the iterator
+     * @throws Exception if the statement can't be executed (in which
+     *         case the exception's message, if any, describes why)
+     */
+    public RelationIterator open() throws Exception {
+        for (int i = 0; i < this.numTables(); i++) {
+            if (this.getTable(i).open() != OperationStatus.SUCCESS) {
+                throw new Exception();  // error msg was printed in open()
+            }
+        }
+        if (this.numTables() > 1) {
+            return JoinPlanner.open(this, this.selectList);
+        }
+        
+        Table table = this.getTable(0);
+        int[] projection = this.projection(table);
+        TableIterator iter = new TableIterator(this,table,true);
+        iter.project(projection);
+        return iter;
+    }
+    
+    /*
+     * Returns the indices of the table's columns that the select list
+     * asks for, in the order in which they appear in it.  * stands for
+     * all of the table's columns.
+     */
+    private int[] projection(Table table) throws Exception {
+        ArrayList<Integer> cols = new ArrayList<Integer>();
+        for (Object selectItem : this.selectList) {
+            if (selectItem == STAR) {
+                for (int i = 0; i < table.numColumns(); i++) {
+                    cols.add(i);
+                }
+            } else if (selectItem instanceof Column) {
+                Column col = (Column)selectItem;
+                int index = -1;
+                for (int i = 0; i < table.numColumns(); i++) {
+                    if (col.nameMatches(table.getColumn(i), table)) {
+                        index = i;
+                        break;
+                    }
+                }
+                if (index < 0) {
+                    throw new Exception(table + ": no column named " +
+                                        col.getName());
+                }
+                cols.add(index);
+            } else {
+                throw new Exception("The select list may only contain " +
+                                    "columns and *");
+            }
+        }
+        
+        int[] projection = new int[cols.size()];
+        for (int i = 0; i < projection.length; i++) {
+            projection[i] = cols.get(i);
+        }
+        return projection;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Server.java
+ *
+ * DBMS Implementation
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+
+/**
+ * A class that runs the DBMS as a server, which accepts connections from
+ * clients on a TCP port of the local machine.  Each client gets its own
+ * Session, which reads commands from the connection one line at a time
+ * (just like the console) and sends the output back over the connection.
+ * The output of a SELECT is sent as the rows are produced, rather than
+ * after all of them have been found.
+ *
+ * The sessions are run by a pool of threads, so the number of clients
+ * that can be served at the same time is the size of the pool; other
+ * clients wait until a session ends.  All of the sessions share the
+ * same BDB environment and table handles, and BDB's locking isolates
+ * their transactions from each other.
+ *
+ * To run the DBMS as a server, specify the server.port setting (see
+ * Config) -- e.g., <code>java DBMS --server.port=4460</code> -- and then
+ * connect using a client such as <code>nc localhost 4460</code>.
+ */
+public class Server {
+    /** The maximum number of sessions if server.threads isn't specified. */
+    public static final int DEFAULT_THREADS = 64;
+
+    /**
+     * Accepts connections on the specified port and runs a session for
+     * each of them.  This method returns only if the server socket
+     * cannot be opened or fails.
+     *
+     * @param  port  the port number
+     * @param  numThreads  the maximum number of concurrent sessions
+     * @throws IOException if the server socket can't be opened or
+     *         can't accept a connection
+     */
+    public static void run(int port, int numThreads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        Session.redirectOutput();
+
+        try (ServerSocket server = new ServerSocket(port, 50,
+                                     InetAddress.getLoopbackAddress())) {
+            System.out.println("Listening on port " + port + ".");
+            while (true) {
+                Socket socket = server.accept();
+                PrintStream out = new PrintStream(new BufferedOutputStream(
+                                    socket.getOutputStream()), false);
+                pool.execute(new Session(socket.getInputStream(), out, out,
+                                         socket));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,668 @@
+/*
+ * Session.java
+ *
+ * DBMS Implementation
+ */
+
+import java.io.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents a session with a single user of the DBMS --
+ * either the console, or a client connected to the server (see Server).
+ * A session reads commands one line at a time, executes them, and
+ * writes their output back to the user.
+ *
+ * Each session runs in its own thread, and has its own transaction
+ * (begun by BEGIN WORK) and its own output streams.  The session that
+ * is running in the current thread can be obtained using current(),
+ * and in server mode System.out and System.err are replaced by streams
+ * that send their output to the current session, so the statements can
+ * continue to print their results to System.out.
+ *
+ * Statements that change the schema of the database (or close the
+ * handles of a table) need exclusive access to it, so they acquire the
+ * write lock of a lock that every other statement acquires for reading.
+ *
+ * A session also keeps track of the tables that it has opened, and
+ * releases them from the table cache when the statement completes --
+ * or, if a transaction is in progress, when the transaction ends.
+ *
+ * Each session keeps the statements that it has parsed most recently
+ * in a cache keyed by their normalised command strings (see
+ * PreparedSQL), so a statement that is entered again is executed
+ * without lexing or parsing it (unless a table or index has been
+ * created or dropped since then -- see PreparedSQL.revalidate()).  A
+ * session also has the statements that were prepared using PREPARE,
+ * which can be executed with different values using EXECUTE, or from
+ * Java using prepare() and execute().
+ *
+ * A Java program can also use the DBMS directly, without a console or
+ * a server, by opening a session with open() and calling execute() and
+ * query() on it.  Such a session doesn't print the output of its
+ * statements: execute() returns the number of rows that a statement
+ * changed, query() returns a ResultCursor that visits the selected
+ * rows, and a statement that fails throws a SQLException whose message
+ * is the statement's error message (see SQLStatement.getError()).
+ * Note that opening such a session replaces System.out and System.err
+ * for the whole JVM (see open()).
+ */
+public class Session implements Runnable {
+    /* the session running in each thread */
+    private static final ThreadLocal<Session> current = new ThreadLocal<Session>();
+
+    /** The default number of statements in a session's statement cache. */
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 128;
+
+    /* all of the sessions that are running */
+    private static final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    /* held for reading by statements, and for writing by schema changes */
+    private static final ReadWriteLock schemaLock = new ReentrantReadWriteLock();
+
+    /* the streams to which the output of the sessions is sent */
+    private static final PrintStream consoleOut = System.out;
+    private static final PrintStream consoleErr = System.err;
+    private static boolean redirected = false;
+
+    private BufferedReader in;
+    private PrintStream out;
+    private PrintStream err;
+    private Closeable connection;   // null for the console session
+    private Transaction txn;
+    private List<Table> openTables = new ArrayList<Table>();
+    private Map<String, PreparedSQL> statementCache;
+    private Map<String, PreparedSQL> prepared =
+      new HashMap<String, PreparedSQL>();
+    private int openCursors = 0;
+
+    /**
+     * Constructs a Session object that reads commands from the specified
+     * stream and writes output to the specified streams.
+     *
+     * @param  in  the stream from which commands are read
+     * @param  out  the stream for normal output
+     * @param  err  the stream for error messages
+     * @param  connection  the connection to close when the session ends,
+     *         or null for the console session
+     */
+    public Session(InputStream in, PrintStream out, PrintStream err,
+                   Closeable connection) {
+        this.in = new BufferedReader(new InputStreamReader(in));
+        this.out = out;
+        this.err = err;
+        this.connection = connection;
+        
+        /* The statement cache evicts its least recently used entry. */
+        final int cacheSize = Config.getInt(Config.STATEMENT_CACHE_SIZE,
+                                            DEFAULT_STATEMENT_CACHE_SIZE);
+        this.statementCache = new LinkedHashMap<String, PreparedSQL>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedSQL> e) {
+                return this.size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the session running in the current thread, or null if
+     * the current thread isn't running a session.
+     *
+     * @return  the current session
+     */
+    public static Session current() {
+        return current.get();
+    }
+
+    /**
+     * Replaces System.out and System.err with streams that send their
+     * output to the current thread's session (or to the console if the
+     * thread isn't running a session).  Calling this method again has
+     * no effect.
+     */
+    public static synchronized void redirectOutput() {
+        if (redirected) {
+            return;
+        }
+        System.setOut(new PrintStream(new SessionOutput(false), false));
+        System.setErr(new PrintStream(new SessionOutput(true), false));
+        redirected = true;
+    }
+
+    /**
+     * Opens a session for a Java program that uses the DBMS directly.
+     * The DBMS must have been initialized using DBMS.init().  The
+     * session discards the output of its statements; a statement that
+     * fails makes execute() or query() throw a SQLException with the
+     * statement's error message.  It should be closed when the program
+     * no longer needs it.
+     *
+     * IMPORTANT: because the statements print their output to
+     * System.out and System.err, the first call to this method replaces
+     * System.out and System.err for the whole JVM with streams that
+     * send their output to the session running in the current thread
+     * (see redirectOutput()).  Output written by a thread that isn't
+     * executing a statement still goes to the original streams, but
+     * a program that replaces System.out or System.err itself after
+     * calling this method will see the output of the statements.
+     *
+     * @return  the session
+     */
+    public static Session open() {
+        redirectOutput();
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        Session s = new Session(InputStream.nullInputStream(), discard,
+                                discard, null);
+        sessions.add(s);
+        return s;
+    }
+
+    /**
+     * Ends a session opened by open(), rolling back its transaction (if
+     * one is in progress).  Its cursors should be closed first.
+     */
+    public void close() {
+        this.abortTxn();
+        this.releaseTables();
+        sessions.remove(this);
+    }
+
+    /**
+     * Rolls back the transactions that are in progress in all sessions.
+     * Used when the DBMS shuts down.
+     */
+    public static void abortAll() {
+        for (Session s : sessions) {
+            s.abortTxn();
+        }
+    }
+
+    /**
+     * Returns true if a session other than the current one has a
+     * transaction in progress.
+     *
+     * @return  true if there is another transaction, and false otherwise
+     */
+    public static boolean otherTxnsInProgress() {
+        for (Session s : sessions) {
+            if (s != current() && s.txn != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the transaction in progress in this session, or null
+     * if there isn't one.
+     *
+     * @return  the transaction
+     */
+    public Transaction getTxn() {
+        return this.txn;
+    }
+
+    /**
+     * Sets the transaction in progress in this session.
+     *
+     * @param  txn  the transaction, or null if it has ended
+     */
+    public void setTxn(Transaction txn) {
+        this.txn = txn;
+    }
+
+    /**
+     * Returns the statement that this session prepared with the
+     * specified name, or null if there isn't one.
+     *
+     * @param  name  the name of the prepared statement
+     * @return  the prepared statement
+     */
+    public PreparedSQL getPrepared(String name) {
+        return this.prepared.get(name);
+    }
+
+    /**
+     * Gives a name to a prepared statement, unless the name is in use.
+     *
+     * @param  name  the name of the prepared statement
+     * @param  ps  the prepared statement
+     * @return  true if the name was given, and false if it is in use
+     */
+    public boolean putPrepared(String name, PreparedSQL ps) {
+        return (this.prepared.putIfAbsent(name, ps) == null);
+    }
+
+    /**
+     * Removes the prepared statement with the specified name.
+     *
+     * @param  name  the name of the prepared statement
+     * @return  true if it was removed, and false if there isn't one
+     */
+    public boolean removePrepared(String name) {
+        return (this.prepared.remove(name) != null);
+    }
+
+    /**
+     * Parses a statement, which may contain placeholders, so that it can
+     * be executed by execute(PreparedSQL, Object...).
+     *
+     * @param  sql  the command string
+     * @return  the prepared statement
+     * @throws InvalidSyntaxException if the command is malformed
+     * @throws IllegalArgumentException if a placeholder is used in a
+     *         place where a value isn't allowed
+     */
+    public PreparedSQL prepare(String sql) {
+        return PreparedSQL.parse(sql);
+    }
+
+    /**
+     * Executes a command in this session.  The statement's output is
+     * written to the session's streams.  This may be called from any
+     * thread, as long as it isn't running another session.
+     *
+     * @param  sql  the command string, which must not contain placeholders
+     * @return  the number of rows that the statement inserted, updated,
+     *          or deleted (0 for other statements)
+     * @throws SQLException if the command is malformed or the statement
+     *         fails -- e.g., because it violates a constraint -- in which
+     *         case the exception's message is the statement's error
+     *         message
+     */
+    public long execute(String sql) throws SQLException {
+        Session prev = this.enter();
+        try {
+            SQLStatement command = this.parse(sql).getStatement();
+            this.run(command);
+            checkError(command);
+            return command.getUpdateCount();
+        } catch (IllegalArgumentException | InvalidSyntaxException |
+                 DatabaseException e) {
+            throw this.failure(e);
+        } finally {
+            this.exit(prev);
+        }
+    }
+
+    /**
+     * Executes a prepared statement in this session, using the specified
+     * values for its placeholders.  The statement's output is written to
+     * the session's streams.  This may be called from any thread, as
+     * long as it isn't running another session.
+     *
+     * @param  ps  the prepared statement
+     * @param  vals  the values of the placeholders
+     * @return  the number of rows that the statement inserted, updated,
+     *          or deleted (0 for other statements)
+     * @throws SQLException if the values are invalid or the statement
+     *         fails (see execute(String))
+     */
+    public long execute(PreparedSQL ps, Object... vals) throws SQLException {
+        Session prev = this.enter();
+        try {
+            ps.revalidate();
+            ps.bind(vals);
+            this.run(ps.getStatement());
+            checkError(ps.getStatement());
+            return ps.getStatement().getUpdateCount();
+        } catch (IllegalArgumentException | DatabaseException e) {
+            throw this.failure(e);
+        } finally {
+            this.exit(prev);
+        }
+    }
+
+    /**
+     * Executes a SELECT command in this session, returning a cursor that
+     * visits the selected rows instead of printing them.  Until the
+     * cursor is closed, it holds the schema lock for reading, so it must
+     * be closed by the thread that called this method, and this session
+     * can't execute a statement that changes the schema.
+     *
+     * @param  sql  the command string, which must not contain placeholders
+     * @return  the cursor, positioned before the first row
+     * @throws SQLException if the command is malformed, isn't a SELECT
+     *         command, or fails (see execute(String))
+     */
+    public ResultCursor query(String sql) throws SQLException {
+        Session prev = this.enter();
+        try {
+            /*
+             * Take the statement out of the cache while the cursor is
+             * using it, so that another query with the same command
+             * string gets a statement of its own.
+             */
+            PreparedSQL ps = this.parse(sql);
+            boolean cached = (this.statementCache.remove(ps.toString()) != null);
+            return this.open(ps.getStatement(), () -> {
+                if (cached) {
+                    this.statementCache.put(ps.toString(), ps);
+                }
+            });
+        } catch (IllegalArgumentException | InvalidSyntaxException |
+                 DatabaseException e) {
+            throw this.failure(e);
+        } finally {
+            this.exit(prev);
+        }
+    }
+
+    /**
+     * Executes a prepared SELECT command in this session, using the
+     * specified values for its placeholders, and returns a cursor that
+     * visits the selected rows (see query(String)).  The values must not
+     * be rebound until the cursor is closed.
+     *
+     * @param  ps  the prepared statement
+     * @param  vals  the values of the placeholders
+     * @return  the cursor, positioned before the first row
+     * @throws SQLException if the values are invalid, the statement
+     *         isn't a SELECT command, or it fails
+     */
+    public ResultCursor query(PreparedSQL ps, Object... vals)
+        throws SQLException
+    {
+        Session prev = this.enter();
+        try {
+            ps.revalidate();
+            ps.bind(vals);
+            return this.open(ps.getStatement(), () -> {});
+        } catch (IllegalArgumentException | DatabaseException e) {
+            throw this.failure(e);
+        } finally {
+            this.exit(prev);
+        }
+    }
+
+    /**
+     * Records that a table has been opened (and thus pinned in the table
+     * cache) by this session.
+     *
+     * @param  table  the table
+     */
+    public void tableOpened(Table table) {
+        this.openTables.add(table);
+    }
+
+    /**
+     * Reads and executes commands until the user enters q or closes
+     * the input.
+     */
+    public void run() {
+        current.set(this);
+        sessions.add(this);
+        try {
+            while (true) {
+                /* Get the command string from the user. */
+                this.out.println();
+                this.out.println("Enter command (q to quit): ");
+                this.out.flush();
+                String commandString = this.in.readLine();
+
+                if (commandString == null ||
+                    commandString.equalsIgnoreCase("q")) {
+                    break;
+                }
+
+                if (!this.executeCommand(commandString)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // the connection was lost
+        } finally {
+            this.abortTxn();
+            this.releaseTables();
+            this.out.flush();
+            sessions.remove(this);
+            current.remove();
+            if (this.connection != null) {
+                try {
+                    this.connection.close();
+                } catch (IOException e) {
+                    // nothing more we can do
+                }
+            }
+        }
+    }
+
+    /*
+     * Parses and executes a single command, returning false if the
+     * session should end because of an unexpected exception.
+     */
+    private boolean executeCommand(String commandString) {
+        try {
+            SQLStatement command = this.parse(commandString).getStatement();
+            if (DBMS.DEBUG) {
+                System.out.println(command);
+            }
+
+            /* Execute the SQL command. */
+            this.run(command);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e);
+        } catch (InvalidSyntaxException e) {
+            // error message will have been printed by the parser
+        } catch (Exception e) {
+            System.err.println("unexpected exception: " + e);
+            e.printStackTrace();
+            if (this.connection == null) {
+                DBMS.abort();
+            }
+            return false;
+        } finally {
+            System.out.flush();
+        }
+        return true;
+    }
+
+    /*
+     * Returns the statement for a command string -- the cached one if
+     * there is one (parsed again if the schema has changed), and
+     * otherwise a newly parsed one, which is added to the cache if it
+     * can be executed again.
+     */
+    private PreparedSQL parse(String commandString) {
+        String sql = PreparedSQL.normalize(commandString);
+        PreparedSQL ps = this.statementCache.get(sql);
+        if (ps == null) {
+            ps = PreparedSQL.parse(sql);
+            if (ps.numParams() > 0) {
+                throw new IllegalArgumentException("use PREPARE and " +
+                  "EXECUTE to supply the values of placeholders");
+            }
+            if (ps.getStatement().isReusable()) {
+                this.statementCache.put(sql, ps);
+            }
+        } else {
+            ps.revalidate();
+        }
+        return ps;
+    }
+
+    /*
+     * Executes a statement, holding the schema lock in the mode that it
+     * needs, and releases the tables it opened unless a transaction is
+     * in progress.
+     */
+    private void run(SQLStatement command) throws DatabaseException {
+        boolean exclusive = command.needsExclusiveAccess();
+        if (exclusive && this.openCursors > 0) {
+            // the write lock would wait forever for our own read lock
+            throw new IllegalArgumentException("the session's cursors " +
+              "must be closed before this statement can be executed");
+        }
+        Lock lock = (exclusive ? schemaLock.writeLock() :
+                     schemaLock.readLock());
+        lock.lock();
+        try {
+            command.setError(null);
+            command.execute();
+        } finally {
+            lock.unlock();
+            if (this.txn == null) {
+                this.releaseTables();
+            }
+        }
+    }
+
+    /*
+     * Opens a cursor over the rows selected by a SELECT statement.  The
+     * cursor keeps the schema lock and (unless a transaction is in
+     * progress) the tables that the statement opened until it is
+     * closed, and then performs the specified action.
+     */
+    private ResultCursor open(SQLStatement command, Runnable afterClose)
+        throws SQLException, DatabaseException
+    {
+        if (!(command instanceof SelectStatement)) {
+            throw new SQLException("the statement is not a SELECT command");
+        }
+
+        Lock lock = schemaLock.readLock();
+        lock.lock();
+        RelationIterator iter;
+        try {
+            command.setError(null);
+            iter = ((SelectStatement)command).open();
+        } catch (Exception e) {
+            lock.unlock();
+            if (this.txn == null) {
+                this.releaseTables();
+            }
+            command.reportError(e, null);
+            throw new SQLException(command.getError(), e);
+        }
+
+        List<Table> tables = new ArrayList<Table>();
+        if (this.txn == null) {
+            tables.addAll(this.openTables);
+            this.openTables.clear();
+        }
+        this.openCursors++;
+        return new ResultCursor(iter, () -> {
+            lock.unlock();
+            this.openCursors--;
+            for (Table table : tables) {
+                table.release();
+            }
+            afterClose.run();
+        });
+    }
+
+    /*
+     * Makes this session the current one for a call from Java,
+     * returning the session that was current before.
+     */
+    private Session enter() {
+        Session prev = current.get();
+        current.set(this);
+        return prev;
+    }
+
+    /*
+     * Restores the session that was current before enter().
+     */
+    private void exit(Session prev) {
+        System.out.flush();
+        System.err.flush();
+        if (prev == null) {
+            current.remove();
+        } else {
+            current.set(prev);
+        }
+    }
+
+    /*
+     * Throws a SQLException if the statement that was just executed
+     * failed.
+     */
+    private static void checkError(SQLStatement command) throws SQLException {
+        String errMsg = command.getError();
+        if (errMsg != null) {
+            throw new SQLException(errMsg);
+        }
+    }
+
+    /*
+     * Returns the SQLException for an exception thrown while parsing or
+     * executing a statement (e.g., by the parser).
+     */
+    private SQLException failure(Exception e) {
+        String errMsg = e.getMessage();
+        return new SQLException(errMsg != null ? errMsg : e.toString(), e);
+    }
+
+    /*
+     * Releases the tables that this session has opened.
+     */
+    private void releaseTables() {
+        for (Table table : this.openTables) {
+            table.release();
+        }
+        this.openTables.clear();
+    }
+
+    /*
+     * Rolls back the transaction in progress in this session, if any.
+     */
+    private void abortTxn() {
+        Transaction t = this.txn;
+        this.txn = null;
+        if (t != null) {
+            try {
+                t.abort();
+            } catch (DatabaseException e) {
+                // the environment is being closed or is invalid
+            }
+        }
+    }
+
+    /*
+     * An output stream that writes to the normal or error output of the
+     * current thread's session.
+     */
+    private static class SessionOutput extends OutputStream {
+        private boolean isErr;
+
+        SessionOutput(boolean isErr) {
+            this.isErr = isErr;
+        }
+
+        private PrintStream target() {
+            Session s = current();
+            if (s == null) {
+                return (this.isErr ? consoleErr : consoleOut);
+            }
+            return (this.isErr ? s.err : s.out);
+        }
+
+        /*
+         * A session's output is flushed after each command (or when its
+         * buffer fills), but output to the console is flushed right away.
+         */
+        public void write(int b) {
+            PrintStream target = this.target();
+            target.write(b);
+            if (current() == null) {
+                target.flush();
+            }
+        }
+
+        public void write(byte[] b, int off, int len) {
+            PrintStream target = this.target();
+            target.write(b, off, len);
+            if (current() == null) {
+                target.flush();
+            }
+        }
+
+        public void flush() {
+            this.target().flush();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * StatsStatement.java
+ *
+ * DBMS Implementation
+ */
+
+import com.sleepycat.je.*;
+
+/**
+ * A class that represents a SHOW STATS command, which reports the
+ * configuration of the environment (see Config) and the rate at which
+ * transactions have been committed since the previous SHOW STATS (or
+ * since the DBMS started):
+ *
+ * <pre>SHOW STATS;</pre>
+ *
+ * It also reports the number of fsyncs of the log, which shows how many
+ * commits are sharing each fsync when group commit is in effect, and
+ * the activity of the cache of open tables (see Table).
+ */
+public class StatsStatement extends SQLStatement {
+    /* the time at which the counters were last reset */
+    private static long resetTime;
+
+    /** Constructs a StatsStatement object */
+    public StatsStatement() {
+        super();
+    }
+
+    /**
+     * Resets the counters that SHOW STATS reports.  Called when the DBMS
+     * starts, so that the first report begins at that point.
+     *
+     * @throws DatabaseException if Berkeley DB encounters a problem
+     *         obtaining its statistics
+     */
+    public static void resetCounters() throws DatabaseException {
+        StatsConfig config = new StatsConfig();
+        config.setClear(true);
+        DBMS.getEnv().getTransactionStats(config);
+        DBMS.getEnv().getStats(config);
+        Table.resetCacheCounters();
+        resetTime = System.currentTimeMillis();
+    }
+
+    public void execute() throws DatabaseException, DeadlockException {
+        StatsConfig config = new StatsConfig();
+        config.setClear(true);
+        TransactionStats txnStats = DBMS.getEnv().getTransactionStats(config);
+        EnvironmentStats envStats = DBMS.getEnv().getStats(config);
+
+        long now = System.currentTimeMillis();
+        long elapsed = Math.max(now - resetTime, 1);
+        resetTime = now;
+
+        long commits = txnStats.getNCommits();
+        long fsyncs = envStats.getNLogFSyncs();
+        System.out.println("Configuration: " + Config.describe() + ".");
+        System.out.println(commits + " commits and " + txnStats.getNAborts() +
+                           " aborts in " + (elapsed / 1000.0) + " seconds (" +
+                           (commits * 1000 / elapsed) + " commits/sec).");
+        System.out.println(fsyncs + " log fsyncs" + (fsyncs == 0 ? "." :
+                           " (" + String.format("%.1f", (double)commits / fsyncs) +
+                           " commits per fsync)."));
+        System.out.println("Table cache: " + Table.cacheSize() + " of " +
+                           Table.maxCacheSize() + " tables open, " +
+                           Table.cacheHits() + " hits, " +
+                           Table.cacheMisses() + " misses, " +
+                           Table.cacheEvictions() + " evictions.");
+        Table.resetCacheCounters();
+    }
+}
@@ -5,28 +5,67 @@
  */
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import com.sleepycat.je.*;
 
 /**
  * A class that represents a table in a relational database.
+ *
+ * The metadata and handles of each open table are kept in a cache as an
+ * immutable Schema object.  Opening a table that is in the cache is
+ * lock-free, and the Table object simply refers to the columns and
+ * indexes of the cached schema, rather than copying them.  This is safe
+ * because those Column objects are never modified once the table has
+ * been opened: the information that depends on a particular statement
+ * (e.g., the table's alias, or the iterator that supplies a column's
+ * value) is kept in the statement's own Column objects.
+ *
+ * The cache is bounded (see Config.TABLE_CACHE_SIZE): when it is full,
+ * the handles of the least recently used tables are closed.  A table
+ * that is opened by a statement is pinned in the cache -- and thus
+ * can't be evicted -- until the statement completes (or until the end
+ * of the session's transaction, if one is in progress), so the handles
+ * of a table are never closed while a cursor or a transaction is using
+ * them.  Tables that haven't been used for a configurable amount of
+ * time (Config.TABLE_CACHE_IDLE) are also evicted.
  */
 public class Table {
-    /* A cache of Table objects for all open tables. */
-    private static Hashtable<String, Table> tableCache;
+    /* A cache of the schemas of all open tables. */
+    private static ConcurrentHashMap<String, Schema> tableCache;
     private static final int TABLE_CACHE_INIT_SIZE = 25;
     
+    /** The default maximum number of tables in the table cache. */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+    
+    private static int maxCacheSize;
+    private static long idleNanos;            // 0 if there is no timeout
+    private static ScheduledExecutorService idleSweeper;
+    
+    /* counters for monitoring the table cache (see SHOW STATS) */
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    
     private String name;
     private String rangeVar;
-    private ArrayList<Column> columns;
+    private List<Column> columns;
+    private List<Index> indexes;
     private Database db;
+    private int keyFormat;
+    private Schema pinned;      // the cached schema that this object pins
+    private String openError;   // why open() last failed, or null
     
     /**
-     * Constructs a Table object with the specified name.
+     * Constructs a Table object with the specified name.  The table's
+     * key format is the current one (KeyEncoding.CURRENT) until it is
+     * replaced by the format stored in the catalog.
      *
      * @param  name  the name of the table
      */
     public Table(String name) {
         this.name = name;
+        this.keyFormat = KeyEncoding.CURRENT;
     }
     
     /**
@@ -39,6 +78,10 @@ public class Table {
      * already been created.  New tables should be opened in the code that
      * implements the CREATE TABLE command.
      *
+     * The table remains pinned in the table cache until release() is
+     * called, which the current session does when the statement (or the
+     * transaction in progress) completes.
+     *
      * @return <code>OperationStatus.NOTFOUND</code> if the table does 
      *         not exist, and <code>OperationStatus.SUCCESS</code> otherwise.
      * @throws DatabaseException if Berkeley DB encounters a problem opening
@@ -46,38 +89,93 @@ public class Table {
      */
     public OperationStatus open() throws DatabaseException {
         /* 
-         * If there is a table with this name in the table cache,
-         * use its database handle and copy its column information.
+         * If the table is in the table cache, use its schema.  Otherwise,
+         * open its handles and add it to the cache.  computeIfAbsent()
+         * ensures that only one session opens the handles of a given
+         * table, without blocking the sessions that use other tables.
+         *
+         * The schema may be evicted between the lookup and the pin, in
+         * which case we simply look it up again.
          */
-        Table cachedTable = tableCache.get(this.name);
-        if (cachedTable != null) {
-            this.db = cachedTable.db;
-            
-            /* 
-             * Create a columns array for this Table object from the
-             * columns array of the cached Table object.  
-             * We create a new array so that the Column objects will
-             * have access to information associated with this Table
-             * object (e.g., its alias, if any).
-             */
-            this.columns = new ArrayList<Column>();
-            for (int i = 0; i < cachedTable.columns.size(); i++) {
-                Column cachedCol = cachedTable.getColumn(i);
-                Column col = new Column(cachedCol.getName(), this);
-                col.useColInfo(cachedCol);
-                this.columns.add(col);
+        Schema schema;
+        boolean miss = false;
+        this.openError = null;
+        do {
+            schema = tableCache.get(this.name);
+            if (schema == null) {
+                miss = true;
+                schema = tableCache.computeIfAbsent(this.name,
+                                                    n -> this.openHandles());
+                if (schema == null) {
+                    return OperationStatus.NOTFOUND;  // error msg was printed
+                }
             }
-            
-            return OperationStatus.SUCCESS;
+        } while (!this.pin(schema));
+        
+        if (miss) {
+            misses.incrementAndGet();
+            evict(false);
+        } else {
+            hits.incrementAndGet();
+        }
+        return OperationStatus.SUCCESS;
+    }
+    
+    /*
+     * Pins the specified schema on behalf of this Table object and the
+     * current session, and makes this object refer to it.  Returns
+     * false if the schema has already been evicted.
+     */
+    private boolean pin(Schema schema) {
+        if (!schema.pin()) {
+            return false;
         }
+        this.release();
+        this.pinned = schema;
+        this.use(schema);
         
-        /* Get the column information from the catalog. */
-        if (this.columns == null) {
-            OperationStatus ret = Catalog.getMetadata(this);
-            if (ret == OperationStatus.NOTFOUND) {
-                System.err.println(name + ": no such table");
-                return ret;
-            }
+        Session session = Session.current();
+        if (session != null) {
+            session.tableOpened(this);
+        }
+        return true;
+    }
+    
+    /**
+     * Unpins the table in the table cache, so that its handles can be
+     * closed if it is evicted.  (If the cache has grown beyond its
+     * maximum size because too many tables were pinned, this is when
+     * it shrinks again.)  The Table object can't be used to access the
+     * table again until it is reopened.  It is safe to call this method
+     * more than once.
+     */
+    public void release() {
+        if (this.pinned != null) {
+            this.pinned.unpin();
+            this.pinned = null;
+            evict(false);
+        }
+    }
+    
+    /*
+     * Reads the table's metadata from the catalog and opens the handles
+     * for its database and indexes, returning the resulting schema, or
+     * null if the table doesn't exist.
+     */
+    private Schema openHandles() throws DatabaseException {
+        /*
+         * Get the column information from the catalog.  Any columns
+         * that this object already has may belong to a table with the
+         * same name that has since been dropped (e.g., if the object is
+         * part of a cached statement), so they are never reused.
+         */
+        this.columns = null;
+        this.keyFormat = KeyEncoding.CURRENT;
+        OperationStatus ret = Catalog.getMetadata(this);
+        if (ret == OperationStatus.NOTFOUND) {
+            this.openError = name + ": no such table";
+            System.err.println(this.openError);
+            return null;
         }
         
         /* Configure the database and open a handle to it. */
@@ -86,37 +184,78 @@ public class Table {
             config.setTransactional(true);
             db = DBMS.getEnv().openDatabase(null, this.dbName(), config);
         } catch (DatabaseNotFoundException e) {
-            System.err.println(name + ": could not find database");
-            return OperationStatus.NOTFOUND;
+            this.openError = name + ": could not find database";
+            System.err.println(this.openError);
+            return null;
         }
         
-        /* Add this table to the in-memory cache of open tables. */
-        tableCache.put(this.name, this);
+        /* 
+         * Open the table's secondary indexes, so that BDB will maintain
+         * them when the table is modified.
+         */
+        List<Index> indexList = Catalog.getIndexes(this);
+        for (Index index : indexList) {
+            index.open(this, false);
+        }
         
-        return OperationStatus.SUCCESS;
+        return new Schema(this.columns, indexList, this.db, this.keyFormat);
+    }
+    
+    /**
+     * Returns the reason that the most recent call to open() failed
+     * (which open() also printed to System.err), or null if it didn't.
+     *
+     * @return  the reason, or null
+     */
+    public String getOpenError() {
+        return this.openError;
+    }
+    
+    /*
+     * Makes this Table object refer to the specified schema.
+     */
+    private void use(Schema schema) {
+        this.columns = schema.columns;
+        this.indexes = schema.indexes;
+        this.db = schema.db;
+        this.keyFormat = schema.keyFormat;
     }
     
     /**
      * Closes the table and ensures all changes have been written to disk.
-     * It also removes the table from the in-memory cache of open tables.
-     * If the <code>Table.cacheClose()</code> method is invoked to close
-     * all tables, it is <i>not</i> necessary to call this method as well.
+     * It also removes the table from the in-memory cache of open tables,
+     * so that the next statement that uses the table will read its
+     * metadata from the catalog again.  If the
+     * <code>Table.cacheClose()</code> method is invoked to close all
+     * tables, it is <i>not</i> necessary to call this method as well.
+     *
+     * This object's own pin is released first, but the handles are
+     * never closed while another Table object has the table pinned --
+     * e.g., because a transaction in progress has used it -- so that
+     * they can't be closed under a cursor or a transaction.
      *
+     * @throws IllegalStateException if the table is in use
      * @throws DatabaseException if Berkeley DB encounters a problem closing
      *         the underlying database.
      */
     public void close() throws DatabaseException {
-        /* Remove the table from the in-memory cache of open tables. */
-        Table t = tableCache.remove(this.name);
+        this.release();
         
         /* 
-         * Close the handle.  Note that we need to use the Table
-         * object that was in the cache, because the handle is stored
-         * in that object.
+         * Evict the table from the in-memory cache of open tables
+         * (which fails if it is pinned), and close the handles of the
+         * cached schema.
          */
-        if (t != null && t.db != null) {
-            t.db.close();
+        Schema schema = tableCache.get(this.name);
+        if (schema == null) {
+            return;
         }
+        if (!schema.evict()) {
+            throw new IllegalStateException(this.name + ": the table is " +
+              "in use by a transaction in progress");
+        }
+        tableCache.remove(this.name, schema);
+        schema.closeHandles();
     }
     
     /**
@@ -177,6 +316,42 @@ public class Table {
         return this.db;
     }
     
+    /**
+     * Returns the secondary index (if any) on the column with the
+     * specified index in this table.  The table must be open.
+     *
+     * @param  colIndex  the index of the column
+     * @return  the index on the column, or null if there isn't one
+     */
+    public Index indexOn(int colIndex) {
+        if (this.indexes != null) {
+            for (Index index : this.indexes) {
+                if (index.getColumn().getIndex() == colIndex) {
+                    return index;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Adds a newly created secondary index to this table, which must be
+     * open.  The index must already be open.  The cached schema of the
+     * table is replaced by one that includes the index, so this should
+     * only be used by statements that have exclusive access to the
+     * database.
+     *
+     * @param  index  the index
+     */
+    public void addIndex(Index index) {
+        List<Index> indexList = new ArrayList<Index>(this.indexes);
+        indexList.add(index);
+        Schema schema = new Schema(this.columns, indexList, this.db,
+                                   this.keyFormat);
+        tableCache.put(this.name, schema);
+        this.pin(schema);
+    }
+    
     /**
      * Returns the column with the specified index in this table. 
      * The leftmost column has an index of 0.
@@ -203,6 +378,27 @@ public class Table {
         return (this.columns == null ? 0 : this.columns.size());
     }
     
+    /**
+     * Returns the format used to marshall the keys of this table's rows
+     * and of its index entries (e.g., KeyEncoding.ORDERED).
+     *
+     * @return  the key format
+     */
+    public int getKeyFormat() {
+        return this.keyFormat;
+    }
+    
+    /**
+     * Sets the format used to marshall the keys of this table's rows
+     * and of its index entries.  Used when reading the table's metadata
+     * from the catalog.
+     *
+     * @param  keyFormat  the key format
+     */
+    public void setKeyFormat(int keyFormat) {
+        this.keyFormat = keyFormat;
+    }
+    
     public String toString() {
         return this.name;
     }
@@ -240,10 +436,28 @@ public class Table {
     }
     
     /**
-     * Initializes the in-memory cache of open tables.
+     * Initializes the in-memory cache of open tables, using the maximum
+     * size and idle timeout from the configuration.
      */
     public static void cacheInit() {
-        tableCache = new Hashtable<String, Table>(TABLE_CACHE_INIT_SIZE);
+        tableCache = new ConcurrentHashMap<String, Schema>(TABLE_CACHE_INIT_SIZE);
+        maxCacheSize = Math.max(Config.getInt(Config.TABLE_CACHE_SIZE,
+                                              DEFAULT_CACHE_SIZE), 1);
+        idleNanos = TimeUnit.SECONDS.toNanos(
+                      Config.getInt(Config.TABLE_CACHE_IDLE, 0));
+        resetCacheCounters();
+        
+        /* Periodically evict the tables that have been idle too long. */
+        if (idleNanos > 0) {
+            idleSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "table cache sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(idleNanos / 2, 1);
+            idleSweeper.scheduleWithFixedDelay(() -> evict(true), period,
+                                               period, TimeUnit.NANOSECONDS);
+        }
     }
     
     /**
@@ -254,24 +468,178 @@ public class Table {
      *         while closing a database handle
      */
     public static void cacheClose() throws DatabaseException {
+        if (idleSweeper != null) {
+            idleSweeper.shutdownNow();
+            idleSweeper = null;
+        }
+        
         if (tableCache != null) {
             /* Close the databases for all tables in the table cache. */
-            Iterator<Table> iter = tableCache.values().iterator();
-            while (iter.hasNext()) {
-                Table t = iter.next();
-                
-                /* 
-                 * Note that we don't call Table.close(), because that
-                 * removes the table from the hashtable that we are
-                 * currently interating over, which produces in an
-                 * exception.
-                 */
-                if (t != null) {
-                    t.db.close();
-                }
+            for (Schema schema : tableCache.values()) {
+                schema.closeHandles();
             }
         }
         
         tableCache = null;
     }
+    
+    /*
+     * Evicts tables that aren't pinned from the table cache, closing
+     * their handles: the least recently used ones until the cache is no
+     * larger than its maximum size, and -- if idleOnly is true -- only
+     * those that have been idle for longer than the idle timeout.
+     */
+    private static void evict(boolean idleOnly) {
+        ConcurrentHashMap<String, Schema> cache = tableCache;
+        if (cache == null || (!idleOnly && cache.size() <= maxCacheSize)) {
+            return;
+        }
+        
+        List<Map.Entry<String, Schema>> entries =
+          new ArrayList<Map.Entry<String, Schema>>(cache.entrySet());
+        entries.sort((e1, e2) -> Long.compare(e1.getValue().lastUsed,
+                                              e2.getValue().lastUsed));
+        
+        long now = System.nanoTime();
+        int excess = cache.size() - maxCacheSize;
+        for (Map.Entry<String, Schema> entry : entries) {
+            Schema schema = entry.getValue();
+            boolean idle = (idleOnly && now - schema.lastUsed > idleNanos);
+            if (excess <= 0 && !idle) {
+                break;
+            }
+            if (schema.evict() && cache.remove(entry.getKey(), schema)) {
+                try {
+                    schema.closeHandles();
+                } catch (DatabaseException e) {
+                    System.err.println("could not close table " +
+                                       entry.getKey() + ": " + e);
+                }
+                evictions.incrementAndGet();
+                excess--;
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of tables in the table cache.
+     */
+    public static int cacheSize() {
+        ConcurrentHashMap<String, Schema> cache = tableCache;
+        return (cache == null ? 0 : cache.size());
+    }
+    
+    /**
+     * Returns the maximum number of tables in the table cache.
+     */
+    public static int maxCacheSize() {
+        return maxCacheSize;
+    }
+    
+    /**
+     * Returns the number of times that an open table was found in the
+     * table cache since the counters were last reset.
+     */
+    public static long cacheHits() {
+        return hits.get();
+    }
+    
+    /**
+     * Returns the number of times that a table had to be opened because
+     * it wasn't in the table cache since the counters were last reset.
+     */
+    public static long cacheMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * Returns the number of tables that were evicted from the table
+     * cache since the counters were last reset.
+     */
+    public static long cacheEvictions() {
+        return evictions.get();
+    }
+    
+    /**
+     * Resets the hit, miss, and eviction counters of the table cache.
+     */
+    public static void resetCacheCounters() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+    
+    /*
+     * An immutable snapshot of the metadata and handles of an open table,
+     * which is shared by all of the Table objects that use the table.
+     * A schema change (e.g., CREATE INDEX) replaces the snapshot instead
+     * of modifying it.
+     *
+     * pins is the number of Table objects that are using the snapshot,
+     * or -1 once the snapshot has been evicted, so that a snapshot can't
+     * be pinned and evicted at the same time.
+     */
+    private static final class Schema {
+        final List<Column> columns;
+        final List<Index> indexes;
+        final Database db;
+        final int keyFormat;
+        final AtomicInteger pins = new AtomicInteger();
+        volatile long lastUsed = System.nanoTime();
+        private boolean closed;
+        
+        Schema(List<Column> columns, List<Index> indexes, Database db,
+               int keyFormat) {
+            this.columns = Collections.unmodifiableList(
+                             new ArrayList<Column>(columns));
+            this.indexes = Collections.unmodifiableList(
+                             new ArrayList<Index>(indexes));
+            this.db = db;
+            this.keyFormat = keyFormat;
+        }
+        
+        /*
+         * Pins the snapshot, returning false if it has been evicted.
+         */
+        boolean pin() {
+            int n;
+            do {
+                n = this.pins.get();
+                if (n < 0) {
+                    return false;
+                }
+            } while (!this.pins.compareAndSet(n, n + 1));
+            this.lastUsed = System.nanoTime();
+            return true;
+        }
+        
+        void unpin() {
+            this.lastUsed = System.nanoTime();
+            this.pins.decrementAndGet();
+        }
+        
+        /*
+         * Marks the snapshot as evicted, returning false if it is pinned.
+         */
+        boolean evict() {
+            return this.pins.compareAndSet(0, -1);
+        }
+        
+        /*
+         * Closes the handles for the table's indexes and then the handle
+         * for the table's database.  (The index handles must be closed
+         * first.)  The handles are closed only once, even if the table
+         * is dropped while it is being evicted.
+         */
+        synchronized void closeHandles() throws DatabaseException {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            for (Index index : this.indexes) {
+                index.close();
+            }
+            this.db.close();
+        }
+    }
 }
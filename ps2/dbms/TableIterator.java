@@ -5,6 +5,9 @@
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.BooleanSupplier;
 import com.sleepycat.je.*;
 
 /**
@@ -12,21 +15,59 @@ import com.sleepycat.je.*;
  * a stored table.  For a given table, there may be more than one
  * TableIterator open at the same time -- for example, when performing the
  * cross product of a table with itself.
+ *
+ * The columns that an iterator produces are given by its projection
+ * (see project()), which is all of the table's columns by default.
+ * Column values are unmarshalled lazily, when the WHERE clause or the
+ * output first asks for them, so only the columns that are produced or
+ * needed by the WHERE clause are unmarshalled.  Each of them is
+ * unmarshalled at most once per row into a slot array that later
+ * requests for the same column read from, and the row's header of
+ * offsets is read only once.
+ *
+ * An iterator that is used by a join (see HashJoinIterator) may also
+ * be positioned on a row that was saved earlier (see restoreRow()).
  */
-public class TableIterator {
+public class TableIterator extends RelationIterator {
     private Table table;
-    private Cursor cursor;
+    private AccessPath path;
     private DatabaseEntry key;
     private DatabaseEntry value;
     private ConditionalExpression where;
+    private BooleanSupplier predicate;   // the compiled WHERE clause
     private int numTuples;
+    
+    /* 
+     * RowInputs used to unmarshall column values.  They are rebound
+     * to the current key/value pair as needed, so that the same two
+     * objects are used for every column of every row.
+     */
+    private RowInput keyIn;
+    private RowInput valueIn;
+    
+    /*
+     * The indices of the columns that the iterator produces, and the
+     * values of the current row's columns (indexed by column index).
+     * Each time the iterator moves to a row, the row's generation is
+     * incremented instead of clearing the slots: rowVals[i] holds the
+     * value of column i if decodedGen[i] is the current generation,
+     * and offsets holds the row's header if headerGen is.
+     */
+    private int[] projection;
+    private Object[] rowVals;
+    private int[] decodedGen;
+    private int[] offsets;
+    private int headerGen;
+    private int generation;
+    private TableIterator[] self;   // for getTableIterators()
 
     /**
      * Constructs a TableIterator object for the subset of the specified
      * table that is defined by the given SQLStatement.  If the
      * SQLStatement has a WHERE clause and the evalWhere parameter has a
      * value of true, the iterator will only visit rows that satisfy the
-     * WHERE clause.
+     * WHERE clause.  The rows are read in the transaction in progress
+     * (see DBMS.getTxn()), if there is one.
      *
      * @param  stmt  the SQL statement that defines the subset of the table
      * @param  table the table to iterate over
@@ -41,6 +82,72 @@ public class TableIterator {
      */
     public TableIterator(SQLStatement stmt, Table table, boolean evalWhere)
         throws DatabaseException
+    {
+        this(stmt, table, evalWhere, DBMS.getTxn(), null);
+    }
+    
+    /**
+     * Constructs a TableIterator object that reads the rows in the
+     * specified transaction.  If updateVals is non-null, the iterator
+     * can be used to modify the rows that it visits (using
+     * updateCurrent() and deleteCurrent()), and the rows are locked
+     * for writing as they are read.
+     *
+     * @param  stmt  the SQL statement that defines the subset of the table
+     * @param  table the table to iterate over
+     * @param  evalWhere should the WHERE clause in stmt be evaluated by this
+     *         iterator?
+     * @param  txn  the transaction (or null to read outside of one)
+     * @param  updateVals  null if the rows won't be modified; otherwise,
+     *         the new value of each column (indexed by column index), 
+     *         with null for columns that aren't being set to a non-null
+     *         value
+     * @throws IllegalStateException if the specified Table object has not
+     *         already been opened
+     * @throws DatabaseException if Berkeley DB encounters a problem
+     *         while accessing one of the underlying database(s)
+     */
+    public TableIterator(SQLStatement stmt, Table table, boolean evalWhere,
+                         Transaction txn, Object[] updateVals)
+        throws DatabaseException
+    {
+        this(stmt, table, (evalWhere ? stmt.getWhere() : null), txn,
+             updateVals);
+    }
+    
+    /**
+     * Constructs a TableIterator object that only visits the rows that
+     * satisfy the specified condition -- e.g., the part of the WHERE
+     * clause that involves only this table, when the table is one of
+     * several that are being joined (see JoinPlanner).  The rows are
+     * read in the transaction in progress (see DBMS.getTxn()), if there
+     * is one.
+     *
+     * @param  stmt  the SQL statement whose columns will be bound to
+     *         this iterator's table
+     * @param  table the table to iterate over
+     * @param  where  the condition (or null to visit every row), whose
+     *         columns must all be columns of this table
+     * @throws IllegalStateException if the specified Table object has not
+     *         already been opened
+     * @throws DatabaseException if Berkeley DB encounters a problem
+     *         while accessing one of the underlying database(s)
+     */
+    public TableIterator(SQLStatement stmt, Table table,
+                         ConditionalExpression where)
+        throws DatabaseException
+    {
+        this(stmt, table, where, DBMS.getTxn(), null);
+    }
+    
+    /*
+     * The constructor that the others use, which evaluates the
+     * specified condition (or none, if it is null).
+     */
+    private TableIterator(SQLStatement stmt, Table table,
+                          ConditionalExpression where, Transaction txn,
+                          Object[] updateVals)
+        throws DatabaseException
     {
         this.table = table;
         
@@ -56,7 +163,8 @@ public class TableIterator {
          * state so that we can get their values as needed.
          */
         Column tableCol, stmtCol;
-        for (int i = 0; i < table.numColumns(); i++) {
+        int numCols = table.numColumns();
+        for (int i = 0; i < numCols; i++) {
             tableCol = table.getColumn(i);
             // check for a match in the SELECT clause
             for (int j = 0; j < stmt.numColumns(); j++) {
@@ -76,18 +184,100 @@ public class TableIterator {
             }
         }
         
-        this.cursor = table.getDB().openCursor(null, null);
+        this.projection = new int[numCols];
+        for (int i = 0; i < numCols; i++) {
+            this.projection[i] = i;
+        }
+        this.rowVals = new Object[numCols];
+        this.decodedGen = new int[numCols];
+        this.offsets = new int[numCols + 1];
+        this.headerGen = 0;
+        this.generation = 0;
+        
         this.key = new DatabaseEntry();
         this.value = new DatabaseEntry();
+        this.keyIn = new RowInput(new byte[0]);
+        this.valueIn = new RowInput(new byte[0]);
+        
+        this.where = where;
+        this.self = new TableIterator[] { this };
+        
+        /*
+         * Use an index to limit the rows that we visit, if the WHERE
+         * clause allows it.  The WHERE clause is still evaluated for
+         * every row that we visit.
+         */
+        this.path = AccessPath.choose(this, table, this.where, updateVals);
         
-        this.where = (evalWhere ? stmt.getWhere() : null);
         if (this.where == null) {
             this.where = new TrueExpression();
         }
         
+        /*
+         * The columns are bound now, so the WHERE clause can be compiled.
+         * This is done before the path's cursor is opened, so that the
+         * cursor isn't leaked if compiling fails.
+         */
+        this.predicate = this.where.compile();
+        
+        this.path.open(txn, updateVals != null);
+        if (DBMS.DEBUG) {
+            System.out.println("access path: " + this.path);
+        }
+        
         this.numTuples = 0;
     }
     
+    public TableIterator[] getTableIterators() {
+        return this.self;
+    }
+    
+    /**
+     * Writes the key and value of the row on which the iterator is
+     * positioned to the specified RowOutput, each preceded by its length.
+     *
+     * @param  out  the RowOutput
+     * @throws IOException if the RowOutput throws one
+     */
+    public void saveRow(RowOutput out) throws IOException {
+        out.writeInt(this.key.getSize());
+        out.write(this.key.getData(), this.key.getOffset(), this.key.getSize());
+        out.writeInt(this.value.getSize());
+        out.write(this.value.getData(), this.value.getOffset(),
+                  this.value.getSize());
+    }
+    
+    /**
+     * Positions the iterator on a row that was written by saveRow().
+     * The bytes are used in place, without being copied.  The iterator
+     * must not be advanced by next() after this method is called.
+     *
+     * @param  buffer  a ByteBuffer that wraps the array holding the row
+     * @param  offset  the offset of the row in the array
+     * @return  the offset of the first byte after the row
+     */
+    public int restoreRow(ByteBuffer buffer, int offset) {
+        int keySize = buffer.getInt(offset);
+        this.key.setData(buffer.array(), offset + 4, keySize);
+        offset += 4 + keySize;
+        int valueSize = buffer.getInt(offset);
+        this.value.setData(buffer.array(), offset + 4, valueSize);
+        this.newRow();
+        return offset + 4 + valueSize;
+    }
+    
+    /**
+     * Returns the table that the iterator visits.
+     */
+    public Table getTable() {
+        return this.table;
+    }
+
+    public String toString() {
+        String rangeVar = this.table.getRangeVar();
+        return this.table + (rangeVar == null ? "" : " " + rangeVar);
+    }
+    
     /**
      * Closes the iterator, which closes any BDB handles that it is using.
      *
@@ -95,10 +285,10 @@ public class TableIterator {
      *         while closing a handle
      */
     public void close() throws DatabaseException {
-        if (this.cursor != null) {
-            this.cursor.close();
+        if (this.path != null) {
+            this.path.close();
         }
-        this.cursor = null;
+        this.path = null;
     }
     
     /**
@@ -118,17 +308,17 @@ public class TableIterator {
      *         while accessing the underlying database(s)
      */
     public boolean first() throws DeadlockException, DatabaseException {
-        if (this.cursor == null) {
+        if (this.path == null) {
             throw new IllegalStateException("this iterator has been closed");
         }
         
-        OperationStatus ret = this.cursor.getFirst(this.key, this.value, null); 
-        if (ret == OperationStatus.NOTFOUND) {
+        if (!this.path.first(this.key, this.value)) {
             return false;
         }
         
         /* Only increment num_tuples if the WHERE clause isn't violated. */
-        if (this.where.isTrue()) {
+        this.newRow();
+        if (this.predicate.getAsBoolean()) {
             this.numTuples++;
         }
         
@@ -154,22 +344,58 @@ public class TableIterator {
      *         while accessing the underlying database(s)
      */
     public boolean next() throws DeadlockException, DatabaseException {
-        if (this.cursor == null) {
+        if (this.path == null) {
             throw new IllegalStateException("this iterator has been closed");
         }
         
         do {
-            OperationStatus ret = this.cursor.getNext(this.key, this.value,
-                                                      null);
-            if (ret == OperationStatus.NOTFOUND) {
+            /* 
+             * A newly created iterator hasn't been positioned yet, so 
+             * we start at the first row reached by the access path.
+             */
+            boolean found = (this.value.getData() == null ?
+                             this.path.first(this.key, this.value) :
+                             this.path.next(this.key, this.value));
+            if (!found) {
                 return false;
             }
-        } while (!this.where.isTrue());
+            this.newRow();
+        } while (!this.predicate.getAsBoolean());
 
         this.numTuples++;
         return true;
     }
     
+    /**
+     * Replaces the row on which the iterator is positioned with the
+     * specified value.  The row's primary key must not change.  The
+     * iterator must have been constructed for modifying rows.
+     *
+     * @param  value  the new marshalled value of the row
+     * @throws DeadlockException if deadlock occurs while accessing the
+     *         underlying BDB database(s)
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         while accessing the underlying database(s)
+     */
+    public void updateCurrent(DatabaseEntry value)
+        throws DeadlockException, DatabaseException
+    {
+        this.path.putCurrent(this.key, value);
+    }
+    
+    /**
+     * Deletes the row on which the iterator is positioned.  The
+     * iterator must have been constructed for modifying rows.
+     *
+     * @throws DeadlockException if deadlock occurs while accessing the
+     *         underlying BDB database(s)
+     * @throws DatabaseException if Berkeley DB encounters another problem
+     *         while accessing the underlying database(s)
+     */
+    public void deleteCurrent() throws DeadlockException, DatabaseException {
+        this.path.deleteCurrent();
+    }
+    
     /**
      * Gets the column at the specified index in the relation that
      * this iterator iterates over.  The leftmost column has an index of 0.
@@ -186,8 +412,9 @@ public class TableIterator {
      * on which this iterator is currently positioned.  The leftmost
      * column has an index of 0.
      *
-     * This method will unmarshall the relevant bytes from the
-     * key/data pair and return the corresponding Object -- i.e.,
+     * The first call for a given column and row will unmarshall the
+     * relevant bytes from the key/data pair, and later calls return
+     * the same value.  The value is the corresponding Object -- i.e.,
      * an object of type String for CHAR and VARCHAR values, an object
      * of type Integer for INTEGER values, or an object of type Double
      * for REAL values.
@@ -213,49 +440,145 @@ public class TableIterator {
                                              + "on a valid tuple");
         }
 
-        /* 
-         * PS 2: replace the following return statement with your 
-         * implementation of the rest of this method.
+        if (this.decodedGen[colIndex] != this.generation) {
+            this.rowVals[colIndex] = this.unmarshall(col);
+            this.decodedGen[colIndex] = this.generation;
+        }
+        return this.rowVals[colIndex];
+    }
+    
+    /*
+     * Invalidates the values and the header of the previous row after
+     * the iterator has moved to a new row.
+     */
+    private void newRow() {
+        this.generation++;
+        if (this.generation == 0) {
+            // the generation wrapped around, so start again from 1
+            Arrays.fill(this.decodedGen, 0);
+            this.headerGen = 0;
+            this.generation = 1;
+        }
+    }
+    
+    /*
+     * Unmarshalls the value of the specified column from the current
+     * key/value pair.
+     */
+    private Object unmarshall(Column col) {
+        /*
+         * Rebind the iterator's RowInputs to the current key/value pair.
+         * This doesn't allocate anything unless the cursor has handed us
+         * a new byte array since the last call.
          */
-	int type = col.getType();
-	int ind = col.getIndex();
-    int length = col.getLength();
-	Object x;
-
-    RowInput valIn = new RowInput(this.value.getData());
-    RowInput keyIn = new RowInput(this.key.getData());
-    if (col.isPrimaryKey()) {
-        switch(type) {
-            case 0:
-                x = keyIn.readNextInt();
-                break;
-            case 1:
-                x = keyIn.readNextDouble();
-                break;
-            default:
-                x = keyIn.readBytesAtOffset(0, length);
+        if (col.isPrimaryKey()) {
+            this.keyIn.setBytes(this.key.getData(), this.key.getOffset(),
+                                this.key.getSize());
+            switch (col.getType()) {
+                case Column.INTEGER:
+                    return KeyEncoding.decodeInt(this.keyIn.readIntAtOffset(0),
+                                                 this.table.getKeyFormat());
+                case Column.REAL:
+                    return KeyEncoding.decodeDouble(this.keyIn.readLongAtOffset(0),
+                                                    this.table.getKeyFormat());
+                default:
+                    return this.keyIn.readBytesAtOffset(0, this.key.getSize());
+            }
         }
-    } else { 
-        short offset = valIn.readShortAtOffset(2 * ind);
-
-        if(offset == -1){
+        
+        this.readHeader();
+        int offset = this.offsets[col.getIndex()];
+        if (offset == InsertRow.IS_NULL) {
             return null;
         }
-        switch(type){
-            case 0:
-                x = valIn.readIntAtOffset(offset);
-                break;
-            case 1:
-                x = valIn.readDoubleAtOffset(offset);
-                break;
+        
+        switch (col.getType()) {
+            case Column.INTEGER:
+                return this.valueIn.readIntAtOffset(offset);
+            case Column.REAL:
+                return this.valueIn.readDoubleAtOffset(offset);
             default:
-                short end = valIn.readNextShort();
-                x = valIn.readBytesAtOffset(offset, end - offset);
+                // the value ends where the next non-null value begins
+                for (int i = col.getIndex() + 1; i < this.offsets.length; i++) {
+                    if (this.offsets[i] >= 0) {
+                        return this.valueIn.readBytesAtOffset(offset,
+                                                              this.offsets[i] - offset);
+                    }
+                }
+                throw new IllegalStateException("invalid header in marshalled row");
+        }
+    }
+    
+    /*
+     * Reads the current row's header, unless it has already been read.
+     */
+    private void readHeader() {
+        if (this.headerGen != this.generation) {
+            this.valueIn.setBytes(this.value.getData(), this.value.getOffset(),
+                                  this.value.getSize());
+            for (int i = 0; i < this.offsets.length; i++) {
+                this.offsets[i] = this.valueIn.readShortAtOffset(2 * i);
             }
+            this.headerGen = this.generation;
         }
-        return x;
     }
-
+    
+    /**
+     * Determines whether the column at the specified index is NULL in
+     * the row on which this iterator is positioned, without
+     * unmarshalling its value.  Used by compiled predicates (see
+     * ConditionalExpression.compile()), which only call it when the
+     * iterator is positioned on a row.
+     *
+     * @param  colIndex  the index of the column
+     * @return  true if the value is NULL, and false otherwise
+     */
+    public boolean isNull(int colIndex) {
+        // the header has IS_PKEY for the primary key, which is never NULL
+        this.readHeader();
+        return (this.offsets[colIndex] == InsertRow.IS_NULL);
+    }
+    
+    /**
+     * Gets the value of the INTEGER column at the specified index in the
+     * row on which this iterator is positioned, without boxing it.  The
+     * value must not be NULL (see isNull()).
+     *
+     * @param  colIndex  the index of the column
+     * @return  the value of the column
+     */
+    public int getIntVal(int colIndex) {
+        this.readHeader();
+        int offset = this.offsets[colIndex];
+        if (offset == InsertRow.IS_PKEY) {
+            this.keyIn.setBytes(this.key.getData(), this.key.getOffset(),
+                                this.key.getSize());
+            return KeyEncoding.decodeInt(this.keyIn.readIntAtOffset(0),
+                                         this.table.getKeyFormat());
+        }
+        return this.valueIn.readIntAtOffset(offset);
+    }
+    
+    /**
+     * Gets the value of the REAL column at the specified index in the
+     * row on which this iterator is positioned, without boxing it.  The
+     * value must not be NULL (see isNull()).
+     *
+     * @param  colIndex  the index of the column
+     * @return  the value of the column
+     */
+    public double getDoubleVal(int colIndex) {
+        this.readHeader();
+        int offset = this.offsets[colIndex];
+        if (offset == InsertRow.IS_PKEY) {
+            this.keyIn.setBytes(this.key.getData(), this.key.getOffset(),
+                                this.key.getSize());
+            return KeyEncoding.decodeDouble(this.keyIn.readLongAtOffset(0),
+                                            this.table.getKeyFormat());
+        }
+        return this.valueIn.readDoubleAtOffset(offset);
+    }
+    
     /**
      * Gets the number of tuples that the iterator has visited.
      *
@@ -275,57 +598,53 @@ public class TableIterator {
     }  
     
     /**
-     * Iterates over all rows in the relation and prints them to the
-     * specified PrintStream (e.g., System.out).
+     * Limits the columns that the iterator produces (and thus that
+     * printAll() prints) to the specified columns of the table, in the
+     * specified order.  A column may appear more than once.  The
+     * iterator must not have been advanced yet.
      *
-     * @throws DeadlockException if deadlock occurs while accessing the
-     *         underlying BDB database(s)
-     * @throws DatabaseException if Berkeley DB encounters another problem
-     *         while accessing the underlying database(s)
+     * @param  cols  the indices of the columns in the table
+     * @throws IndexOutOfBoundsException if an index is invalid
      */
-    public void printAll(PrintStream out)
-        throws DeadlockException, DatabaseException
-    {
-        // Display column names -- and compute the length of the separator.
-        int separatorLen = 0;
-        
-        out.println();
-        for (int i = 0; i < this.numColumns(); i++) {
-            Column col = this.getColumn(i);
-            out.print(" | " + col.getName());
-            
-            int colWidth = col.printWidth();
-            for (int j = col.getName().length(); j < colWidth; j++) {
-                out.print(" ");
-            }
-            separatorLen += (colWidth + 3);
-        }
-        out.println(" | ");
-        separatorLen += 3;
-        
-        // Display the separator.
-        for (int i = 0; i < separatorLen; i++) {
-            out.print("-");
-        }
-        out.println();
-        
-        // Print the tuples.
-        while (this.next()) {
-            for (int i = 0; i < this.numColumns(); i++) {
-                Object val = this.getColumnVal(i);
-                String valString =
-                    (val == null ? "null" : val.toString());
-                
-                out.print(" | " + valString);
-                
-                int valWidth = valString.length();
-                int colWidth = this.getColumn(i).printWidth();
-                for (int j = valWidth; j < colWidth; j++) {
-                    out.print(" ");
-                }
-            }
-            out.println(" | ");
+    public void project(int[] cols) {
+        for (int i = 0; i < cols.length; i++) {
+            this.table.getColumn(cols[i]);
         }
-        out.println();
+        this.projection = cols.clone();
+    }
+    
+    /**
+     * Gets the number of columns that the iterator produces.
+     *
+     * @return  the number of columns in the projection
+     */
+    public int numOutputColumns() {
+        return this.projection.length;
+    }
+    
+    /**
+     * Gets the column at the specified position in the projection.
+     *
+     * @param  i  the position of the column, starting from 0
+     * @return  the column
+     * @throws  IndexOutOfBoundsException if the position is invalid
+     */
+    public Column getOutputColumn(int i) {
+        return this.table.getColumn(this.projection[i]);
+    }
+    
+    /**
+     * Gets the value of the column at the specified position in the
+     * projection, in the row on which this iterator is positioned.
+     *
+     * @param  i  the position of the column, starting from 0
+     * @return  the value of the column
+     * @throws  IllegalStateException if the iterator has not yet been
+     *          been positioned on a tuple
+     * @throws  IndexOutOfBoundsException if the position is invalid
+     */
+    public Object getOutputVal(int i) {
+        return this.getColumnVal(this.projection[i]);
     }
+    
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+/*
+ * TableStats.java
+ *
+ * DBMS Implementation
+ */
+
+/**
+ * A class that represents the statistics that ANALYZE gathers about a
+ * table (see AnalyzeStatement): the number of rows, and the statistics
+ * of each column (see ColumnStats).  They are stored in the catalog
+ * (see Catalog.putStats()) and are not updated as rows are inserted,
+ * updated, and deleted, so they describe the table as it was when it
+ * was last analyzed.
+ */
+public class TableStats {
+    private long numRows;
+    private long analyzedTime;
+    private ColumnStats[] columns;
+
+    /**
+     * Constructs a TableStats object with the specified statistics.
+     *
+     * @param  numRows  the number of rows in the table
+     * @param  analyzedTime  the time at which the table was analyzed
+     *         (as returned by System.currentTimeMillis())
+     * @param  columns  the statistics of the columns, indexed by
+     *         column index
+     */
+    public TableStats(long numRows, long analyzedTime, ColumnStats[] columns) {
+        this.numRows = numRows;
+        this.analyzedTime = analyzedTime;
+        this.columns = columns;
+    }
+
+    /** Returns the number of rows in the table. */
+    public long getNumRows() {
+        return this.numRows;
+    }
+
+    /** Returns the time at which the table was analyzed. */
+    public long getAnalyzedTime() {
+        return this.analyzedTime;
+    }
+
+    /** Returns the number of columns. */
+    public int numColumns() {
+        return this.columns.length;
+    }
+
+    /**
+     * Returns the statistics of the column with the specified index.
+     *
+     * @param  i  the index of the column
+     * @return  the column's statistics
+     */
+    public ColumnStats getColumn(int i) {
+        return this.columns[i];
+    }
+}
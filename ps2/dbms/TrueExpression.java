@@ -4,6 +4,8 @@
  * DBMS Implementation
  */
 
+import java.util.function.BooleanSupplier;
+
 /**
  * A class that represents a conditional expression that is always true.
  * It is used when evaluating SQL statements with empty WHERE clauses.
@@ -18,4 +20,16 @@ public class TrueExpression extends ConditionalExpression {
     public boolean isTrue() {
         return true;
     }
+    
+    public BooleanSupplier compile() {
+        return () -> true;
+    }
+    
+    public double estimateCost() {
+        return 0;
+    }
+    
+    public double estimateSelectivity() {
+        return 1;
+    }
 }
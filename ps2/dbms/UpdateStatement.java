@@ -9,9 +9,17 @@ import com.sleepycat.je.*;
 
 /**
  * A class that represents an UPDATE statement.
+ *
+ * The rows are updated one at a time as a cursor visits them, so that
+ * an update of any number of rows uses a fixed amount of memory.  All
+ * of the changes are made in a single transaction -- the transaction
+ * in progress, if there is one -- so either all of the matching rows
+ * are updated or none of them are.  If the statement fails after it
+ * has begun to make changes in the transaction in progress, that
+ * transaction is rolled back.
  */
 public class UpdateStatement extends SQLStatement {
-    /** 
+    /**
      * Constructs an UpdateStatement object involving the specified
      * table, list of columns, and conditional expression.  If no
      * conditional expression is specified, the update will be applied to
@@ -27,8 +35,142 @@ public class UpdateStatement extends SQLStatement {
                            ConditionalExpression where) {
         super(t, colList, where);
     }
+
+    /*
+     * Everything that an execution computes is kept outside the
+     * statement, so a parsed statement can be executed again.
+     */
+    public boolean isReusable() {
+        return true;
+    }
     
     public void execute() throws DatabaseException, DeadlockException {
-        /* not implemented for this assignment */
+        Table table = this.getTable(0);
+        Transaction txn = DBMS.getTxn();
+        boolean autoCommit = (txn == null);
+        TableIterator iter = null;
+        boolean modified = false;
+        int numUpdated = 0;
+        this.setUpdateCount(0);
+
+        try {
+            if (table.open() != OperationStatus.SUCCESS) {
+                throw new Exception();  // error msg was printed in open()
+            }
+
+            /*
+             * Determine the new value of each column being updated,
+             * making the same adjustments as an INSERT command.  This
+             * will throw an exception if a value is invalid.
+             */
+            int numColumns = table.numColumns();
+            boolean[] isUpdated = new boolean[numColumns];
+            Object[] updateVals = new Object[numColumns];
+            for (int i = 0; i < this.numColumns(); i++) {
+                Column stmtCol = this.getColumn(i);
+                int colIndex = this.findColumn(table, stmtCol);
+                Column col = table.getColumn(colIndex);
+                isUpdated[colIndex] = true;
+                updateVals[colIndex] = col.adjustValue(stmtCol.getUpdateVal());
+            }
+
+            Column pkCol = table.primaryKeyColumn();
+            int pkIndex = (pkCol == null ? -1 : pkCol.getIndex());
+            boolean pkUpdated = (pkIndex >= 0 && isUpdated[pkIndex]);
+
+            if (autoCommit) {
+                txn = DBMS.getEnv().beginTransaction(null, null);
+            }
+            iter = new TableIterator(this, table, true, txn, updateVals);
+
+            InsertRow row = new InsertRow(table);
+            Object[] values = new Object[numColumns];
+            DatabaseEntry key = new DatabaseEntry();
+            DatabaseEntry value = new DatabaseEntry();
+            boolean movedRow = false;
+
+            while (iter.next()) {
+                boolean keyChanges = false;
+                if (pkUpdated) {
+                    Object oldKey = iter.getColumnVal(pkIndex);
+                    if (oldKey.equals(updateVals[pkIndex])) {
+                        /*
+                         * Don't update a row that we've already moved
+                         * to its new key (which may be ahead of the
+                         * cursor).
+                         */
+                        if (movedRow) {
+                            continue;
+                        }
+                    } else {
+                        keyChanges = true;
+                    }
+                }
+
+                for (int i = 0; i < numColumns; i++) {
+                    values[i] = (isUpdated[i] ? updateVals[i] :
+                                 iter.getColumnVal(i));
+                }
+                row.setValues(values);
+                row.marshall();
+                row.setEntries(key, value);
+
+                modified = true;
+                if (!keyChanges) {
+                    iter.updateCurrent(value);
+                } else {
+                    /*
+                     * The row moves to a new key, so we delete it and
+                     * insert it again.  Because all of the new values
+                     * are constants, only one row can be given the new
+                     * key.
+                     */
+                    iter.deleteCurrent();
+                    if (table.getDB().putNoOverwrite(txn, key, value) ==
+                        OperationStatus.KEYEXIST) {
+                        throw new Exception("There is an existing row " +
+                          "with the specified primary key");
+                    }
+                    movedRow = true;
+                }
+                numUpdated++;
+            }
+
+            iter.close();
+            iter = null;
+            if (autoCommit) {
+                txn.commit();
+            }
+
+            this.setUpdateCount(numUpdated);
+            System.out.println("Updated " + numUpdated + " " +
+                               (numUpdated == 1 ? "row" : "rows") +
+                               " in " + table + ".");
+        } catch (Exception e) {
+            if (iter != null) {
+                iter.close();
+            }
+
+            this.reportError(e, "Could not update rows");
+
+            if (autoCommit && txn != null) {
+                txn.abort();
+            } else if (modified) {
+                DBMS.abortTxn();
+            }
+        }
+    }
+
+    /*
+     * Returns the index of the column of the table that has the same
+     * name as the specified column from the SET clause.
+     */
+    private int findColumn(Table table, Column stmtCol) throws Exception {
+        for (int i = 0; i < table.numColumns(); i++) {
+            if (stmtCol.nameMatches(table.getColumn(i), table)) {
+                return i;
+            }
+        }
+        throw new Exception(table + ": no column named " + stmtCol.getName());
     }
 }